@@ -0,0 +1,47 @@
+package daniel.mlm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Hypixel player responses the benchmarks read instead of calling the API. Each fixture is a whole
+ * /v2/player response kept in src/jmh/resources/fixtures, one with every bridge stat and one missing
+ * some of them.
+ */
+final class Fixtures {
+
+    static final String[] NAMES = {"bridge-main.json", "bridge-casual.json"};
+
+    // The default posPaths, bridge overall wins
+    static final String[] BRIDGE_WINS = {"player~stats~Duels~bridge_duel_wins",
+            "player~stats~Duels~bridge_doubles_wins",
+            "player~stats~Duels~bridge_threes_wins",
+            "player~stats~Duels~bridge_four_wins",
+            "player~stats~Duels~bridge_2v2v2v2_wins",
+            "player~stats~Duels~bridge_3v3v3v3_wins",
+            "player~stats~Duels~capture_threes_wins"};
+
+    private Fixtures() {}
+
+    /*
+     * @param name              File name of a fixture
+     * @return                  The response body
+     * */
+    static byte[] read(String name) {
+        try(InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)){
+            if(in == null) throw new IllegalArgumentException("No fixture " + name);
+            return in.readAllBytes();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Reader reader(byte[] body) {
+        return new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8);
+    }
+}
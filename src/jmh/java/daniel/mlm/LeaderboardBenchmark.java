@@ -0,0 +1,65 @@
+package daniel.mlm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Creating a whole leaderboard the way a run does once the responses are in: players go through a
+ * pipeline whose stats stage reads a fixture instead of calling Hypixel, then every player is scored,
+ * rounded and sorted. Leaves out only the network, so it measures the machine's own overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LeaderboardBenchmark {
+
+    @Param({"100", "10000"})
+    public int players;
+
+    @Param({"16"})
+    public int workers;
+
+    private final ArrayList<String> names = new ArrayList<>();
+
+    private byte[][] bodies;
+
+    private StatExtractor extractor;
+
+    private StatFormula formula;
+
+    @Setup
+    public void setup() {
+        for(int i = 0; i < players; i++) names.add("player_" + i);
+        bodies = new byte[Fixtures.NAMES.length][];
+        for(int i = 0; i < bodies.length; i++) bodies[i] = Fixtures.read(Fixtures.NAMES[i]);
+        formula = StatFormula.ofPaths(Fixtures.BRIDGE_WINS, new String[0], false);
+        extractor = new StatExtractor(formula.paths());
+    }
+
+    @Benchmark
+    public Ranking createLeaderboard() {
+        Pipeline pipeline = new Pipeline(workers * 2).source(names);
+        pipeline.stage("Hypixel stat check", workers, null, player -> {
+            try{
+                player.stats = extractor.extract(Fixtures.reader(bodies[Math.floorMod(player.name.hashCode(), bodies.length)]));
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        });
+        Ranking leaderboard = new Ranking(players);
+        pipeline.drain(player -> leaderboard.add(player.name, Rounding.roundTo(formula.evaluate(player.stats), 1)));
+        return leaderboard.sort(false);
+    }
+}
@@ -0,0 +1,57 @@
+package daniel.mlm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Sorting a leaderboard, with a quarter as many distinct stats as players so there are plenty of
+ * ties, and a few players whose stat is not a number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RankingBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int players;
+
+    private String[] names;
+
+    private double[] scores;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(212);
+        names = new String[players];
+        scores = new double[players];
+        for(int i = 0; i < players; i++){
+            names[i] = "player_" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+            scores[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextInt(Math.max(1, players / 4)) / 10.0;
+        }
+    }
+
+    @Benchmark
+    public Ranking sort() {
+        return fill().sort(false);
+    }
+
+    @Benchmark
+    public Ranking top100() {
+        return fill().top(100, false);
+    }
+
+    private Ranking fill() {
+        Ranking ranking = new Ranking(players);
+        for(int i = 0; i < players; i++) ranking.add(names[i], scores[i]);
+        return ranking;
+    }
+}
@@ -0,0 +1,52 @@
+package daniel.mlm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rounding processed stats to the configured number of decimals, done once for every player, against
+ * the DecimalFormat round trip it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoundBenchmark {
+
+    @Param({"0", "1", "3"})
+    public int decimals;
+
+    private final double[] values = new double[1024];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(212);
+        for(int i = 0; i < values.length; i++) values[i] = random.nextDouble() * Math.pow(10, random.nextInt(7));
+    }
+
+    @Benchmark
+    public double roundTo() {
+        return Rounding.roundTo(values[next++ & (values.length - 1)], decimals);
+    }
+
+    @Benchmark
+    public double decimalFormat() {
+        double num = values[next++ & (values.length - 1)];
+        if(decimals == 0) return Math.round(num);
+        DecimalFormat df = new DecimalFormat("#." + "#".repeat(decimals));
+        df.setRoundingMode(RoundingMode.HALF_UP);
+        return Double.parseDouble(df.format(num));
+    }
+}
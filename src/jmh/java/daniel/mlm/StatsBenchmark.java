@@ -0,0 +1,73 @@
+package daniel.mlm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Pulling a player's stats out of a Hypixel response and turning them into their processed stat,
+ * which is done once for every player of every run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatsBenchmark {
+
+    @Param({"bridge-main.json", "bridge-casual.json"})
+    public String fixture;
+
+    private byte[] body;
+
+    private StatExtractor extractor;
+
+    private StatFormula sum;
+
+    private StatFormula ratio;
+
+    private double[] stats;
+
+    private double[] ratioStats;
+
+    @Setup
+    public void setup() throws IOException {
+        body = Fixtures.read(fixture);
+        sum = StatFormula.ofPaths(Fixtures.BRIDGE_WINS, new String[0], false);
+        ratio = StatFormula.parse("(wins + doubles) / max(losses + doubles_losses, 1)", Map.of(
+                "wins", "player~stats~Duels~bridge_duel_wins",
+                "doubles", "player~stats~Duels~bridge_doubles_wins",
+                "losses", "player~stats~Duels~bridge_duel_losses",
+                "doubles_losses", "player~stats~Duels~bridge_doubles_losses"));
+        extractor = new StatExtractor(sum.paths());
+        stats = extractor.extract(Fixtures.reader(body));
+        ratioStats = new StatExtractor(ratio.paths()).extract(Fixtures.reader(body));
+    }
+
+    @Benchmark
+    public double[] extract() throws IOException {
+        return extractor.extract(Fixtures.reader(body));
+    }
+
+    @Benchmark
+    public double evaluateSum() {
+        return sum.evaluate(stats);
+    }
+
+    @Benchmark
+    public double evaluateFormula() {
+        return ratio.evaluate(ratioStats);
+    }
+
+    @Benchmark
+    public double extractAndEvaluate() throws IOException {
+        return sum.evaluate(extractor.extract(Fixtures.reader(body)));
+    }
+}
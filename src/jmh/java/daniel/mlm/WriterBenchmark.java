@@ -0,0 +1,49 @@
+package daniel.mlm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Writing a sorted 100k row leaderboard in each output format to a channel that throws the bytes
+ * away, so only formatting is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriterBenchmark {
+
+    @Param({"CSV", "JSON_LINES", "BINARY"})
+    public LeaderboardWriter.Format format;
+
+    private Ranking leaderboard;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(212);
+        leaderboard = new Ranking(100_000);
+        for(int i = 0; i < 100_000; i++){
+            leaderboard.add("player_" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36),
+                    Rounding.roundTo(random.nextDouble() * 5000, 1));
+        }
+        leaderboard.sort(false);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try(LeaderboardWriter out = new LeaderboardWriter(Channels.newChannel(OutputStream.nullOutputStream()), format)){
+            out.write(leaderboard, 1);
+        }
+    }
+}
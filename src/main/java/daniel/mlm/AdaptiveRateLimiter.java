@@ -0,0 +1,86 @@
+package daniel.mlm;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/*
+ * Rate limiter that adjusts itself to what the API reports. When responses carry Hypixel's
+ * RateLimit-Limit, RateLimit-Remaining and RateLimit-Reset headers, the rate follows the remaining
+ * requests spread over the time left in the window, so a key with a high quota runs faster and every
+ * key slows down gradually as it nears the end of its quota. APIs without those headers start at the
+ * configured rate, halve it on every 429 and creep back up after successful requests. A 429 always
+ * pauses everyone using the limiter until the API is ready again.
+ */
+public class AdaptiveRateLimiter extends RateLimiter {
+
+    // Slowest rate the limiter will go down to, in requests per second
+    private static final double MIN_RATE = 0.05;
+
+    // Share of the gap to a higher target rate closed per response, so speeding up is gradual
+    private static final double SPEED_UP = 0.25;
+
+    // Milliseconds to pause for after a 429 that does not say how long to wait
+    private static final long DEFAULT_RETRY_AFTER = 5_000;
+
+    // Rate configured by the user, the ceiling for APIs that do not send quota headers
+    private final double baseRate;
+
+    public AdaptiveRateLimiter(String name, double permitsPerSecond) {
+        super(name, permitsPerSecond, permitsPerSecond);
+        this.baseRate = permitsPerSecond;
+    }
+
+    /*
+     * @return                  Rate the limiter was configured with, in requests per second
+     * */
+    public double getBaseRate() {
+        return baseRate;
+    }
+
+    /*
+     * Adjusts the rate to a response, call before reading its body.
+     * @param response          Response from the API
+     * @throws ThrottledException   If the response is a 429
+     * */
+    public void observe(HttpResponse response) throws ThrottledException {
+        long limit = headerValue(response, "RateLimit-Limit");
+        long remaining = headerValue(response, "RateLimit-Remaining");
+        long reset = headerValue(response, "RateLimit-Reset");
+        boolean quotaHeaders = limit >= 0 && remaining >= 0 && reset >= 0;
+        if(response.getStatusLine().getStatusCode() == 429){
+            long retryAfter = headerValue(response, "Retry-After");
+            if(retryAfter < 0) retryAfter = reset;
+            long retryAfterMillis = retryAfter >= 0 ? Math.max(1, retryAfter) * 1000 : DEFAULT_RETRY_AFTER;
+            if(!quotaHeaders) setRate(Math.max(MIN_RATE, getRate() / 2));
+            pause(retryAfterMillis);
+            throw new ThrottledException(getName() + " rate limit reached", retryAfterMillis);
+        }
+        synchronized(this){
+            double rate = getRate();
+            if(quotaHeaders){
+                if(remaining <= 0){
+                    pause(Math.max(1, reset) * 1000);
+                    return;
+                }
+                double target = Math.max(MIN_RATE, (double)remaining / Math.max(1, reset));
+                setRate(target < rate ? target : rate + (target - rate) * SPEED_UP);
+            }
+            else if(rate < baseRate){
+                setRate(Math.min(baseRate, rate + baseRate * SPEED_UP / 10));
+            }
+        }
+    }
+
+    /*
+     * @return                  Value of a whole number header, -1 if it is missing or not a number
+     * */
+    private static long headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if(header == null) return -1;
+        try{
+            return Long.parseLong(header.getValue().trim());
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+}
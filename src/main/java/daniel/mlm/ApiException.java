@@ -0,0 +1,14 @@
+package daniel.mlm;
+
+import java.io.IOException;
+
+/*
+ * Thrown when an API answers but reports that the request failed, such as Hypixel returning
+ * "success": false along with a cause.
+ */
+public class ApiException extends IOException {
+
+    public ApiException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,168 @@
+package daniel.mlm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Stops requests from being sent to an API that keeps failing. After threshold failures in a row the
+ * breaker opens and every caller waits out the cooldown instead of adding to the load of an API that
+ * is already struggling. One trial request is then let through: if it succeeds the breaker closes
+ * and everyone carries on, if it fails the breaker opens for another cooldown, and if it ends without
+ * an answer either way the next caller sends the trial instead. Requests sent before the breaker last
+ * opened can still be timing out long after, so their results are ignored. Callers wait on a lock
+ * rather than a monitor, so waiting virtual threads are not pinned to their carriers.
+ */
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    // Name of the API, used in messages
+    private final String name;
+
+    // Failures in a row that open the breaker
+    private final int threshold;
+
+    private final long cooldownNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private State state = State.CLOSED;
+
+    private int failures = 0;
+
+    // Time in nanoseconds the breaker lets a trial request through
+    private long openUntil;
+
+    // Number of times the breaker has opened, the ticket of every request sent since it last did
+    private long opened = 0;
+
+    // Caller sending the trial request while half open
+    private Thread trial;
+
+    /*
+     * @param name              Name of the API
+     * @param threshold         Failures in a row that open the breaker, 0 to never open it
+     * @param cooldownMillis    Milliseconds the breaker stays open before a trial request
+     * */
+    public CircuitBreaker(String name, int threshold, long cooldownMillis) {
+        this.name = name;
+        this.threshold = threshold;
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    }
+
+    /*
+     * Blocks while the breaker is open, or while another caller's trial request is in flight.
+     * @return                  Ticket to pass to success, failure and release once the request is
+     *                          over, or -1 if the breaker opened again while waiting, which counts as a
+     *                          failed attempt for the caller
+     * */
+    public long acquire() throws InterruptedException {
+        lock.lock();
+        try{
+            long seen = opened;
+            while(true){
+                switch(state){
+                    case CLOSED -> {
+                        return opened;
+                    }
+                    case OPEN -> {
+                        long wait = openUntil - System.nanoTime();
+                        if(wait > 0){
+                            changed.awaitNanos(wait);
+                        }
+                        else{
+                            // This caller sends the trial request
+                            state = State.HALF_OPEN;
+                            trial = Thread.currentThread();
+                            return opened;
+                        }
+                    }
+                    case HALF_OPEN -> {
+                        if(opened != seen) return -1;
+                        changed.awaitNanos(cooldownNanos);
+                    }
+                }
+                if(state == State.OPEN && opened != seen) return -1;
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Records that the API answered, closing the breaker if this was the trial request. Requests sent
+     * before the breaker last opened are ignored, they say nothing about whether it has recovered.
+     * @param ticket            What acquire returned for the request
+     * */
+    public void success(long ticket) {
+        lock.lock();
+        try{
+            if(ticket != opened) return;
+            if(state == State.HALF_OPEN){
+                if(trial != Thread.currentThread()) return;
+                state = State.CLOSED;
+                trial = null;
+                System.out.println(name + " is answering again.");
+                changed.signalAll();
+            }
+            failures = 0;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Called once a request is over, whether or not success or failure was recorded for it. A trial
+     * request that ended without either, such as when its caller was interrupted, opens the breaker
+     * again with its cooldown over, so the next caller sends the trial instead of everyone waiting on
+     * one that will never finish.
+     * @param ticket            What acquire returned for the request
+     * */
+    public void release(long ticket) {
+        lock.lock();
+        try{
+            if(ticket == opened && state == State.HALF_OPEN && trial == Thread.currentThread()){
+                state = State.OPEN;
+                openUntil = System.nanoTime();
+                trial = null;
+                changed.signalAll();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Records that a request failed, opening the breaker if there have been threshold of them in a row
+     * or it was the trial request. Requests sent before the breaker last opened are ignored, as they
+     * may still be timing out long after the API recovered.
+     * @param ticket            What acquire returned for the request
+     * */
+    public void failure(long ticket) {
+        lock.lock();
+        try{
+            if(ticket != opened || state == State.OPEN || threshold <= 0) return;
+            if(state == State.HALF_OPEN && trial != Thread.currentThread()) return;
+            failures++;
+            if(state == State.HALF_OPEN || failures >= threshold){
+                state = State.OPEN;
+                openUntil = System.nanoTime() + cooldownNanos;
+                opened++;
+                failures = 0;
+                trial = null;
+                Metrics.count("breaker." + name);
+                System.out.println(name + " keeps failing, pausing requests to it for " + TimeUnit.NANOSECONDS.toMillis(cooldownNanos) + "ms.");
+                changed.signalAll();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package daniel.mlm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/*
+ * Ranking of more players than fit in memory. Players are kept in a Ranking until bufferSize of them
+ * have been added, then sorted and spilled to a run file on disk, so only one buffer is ever held.
+ * Writing merges every run and the last buffer with a heap of one cursor per run, assigning ranks
+ * as rows come out in leaderboard order, the same as Ranking would have.
+ *
+ * Each run file holds its rows in leaderboard order as UTF name and double stat.
+ */
+public class ExternalRanking implements Closeable {
+
+    private static final int RUN_BUFFER = 1 << 16;
+
+    private final int bufferSize;
+
+    private final boolean reverse;
+
+    private final File dir;
+
+    private final ArrayList<File> runs = new ArrayList<>();
+
+    private Ranking buffer;
+
+    private int buffered = 0;
+
+    private long size = 0;
+
+    // Distribution of the scores of every spilled buffer
+    private final ScoreSummary spilled = new ScoreSummary();
+
+    /*
+     * @param bufferSize        Players kept in memory before they are spilled to a run file
+     * @param reverse           Whether to order from least to most
+     * @param dir               Directory run files are written to
+     * */
+    public ExternalRanking(int bufferSize, boolean reverse, File dir) {
+        this.bufferSize = Math.max(1, bufferSize);
+        this.reverse = reverse;
+        this.dir = dir;
+        buffer = new Ranking(Math.min(this.bufferSize, 1 << 16));
+    }
+
+    /*
+     * @param name              Username of a player
+     * @param score             Processed stat of the player
+     * */
+    public void add(String name, double score) throws IOException {
+        buffer.add(name, score);
+        size++;
+        if(++buffered >= bufferSize) spill();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /*
+     * @return                  Distribution of every score added, merged from the summary of each
+     *                          buffer so no more than one buffer of scores is ever held
+     * */
+    public ScoreSummary summary() {
+        ScoreSummary summary = new ScoreSummary();
+        summary.merge(spilled);
+        summary.merge(buffer.summary());
+        return summary;
+    }
+
+    /*
+     * Merges every player into leaderboard order and writes them.
+     * @param out               Writer to write the rows to, left open
+     * @param top               Number of rows to write, 0 for every player
+     * @param decimals          Number of decimals the stats were rounded to
+     * */
+    public void write(LeaderboardWriter out, int top, int decimals) throws IOException {
+        buffer.sort(reverse);
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(runs.size() + 1,
+                (a, b) -> Ranking.compare(a.score, a.name, b.score, b.name, reverse));
+        ArrayList<Cursor> cursors = new ArrayList<>();
+        try{
+            for(File run : runs){
+                Cursor cursor = new Cursor(run);
+                cursors.add(cursor);
+                if(cursor.next()) heap.add(cursor);
+            }
+            Cursor memory = new Cursor(buffer);
+            if(memory.next()) heap.add(memory);
+            long rows = top > 0 ? Math.min(top, size) : size;
+            out.start((int)Math.min(rows, Integer.MAX_VALUE));
+            int rank = 0;
+            double last = Double.NaN;
+            for(long row = 0; row < rows && !heap.isEmpty(); row++){
+                Cursor cursor = heap.poll();
+                if(row == 0 || !Ranking.sameScore(cursor.score, last)) rank = (int)Math.min(row + 1, Integer.MAX_VALUE);
+                last = cursor.score;
+                out.writeRow(rank, cursor.name, cursor.score, decimals);
+                if(cursor.next()) heap.add(cursor);
+            }
+        }finally{
+            for(Cursor cursor : cursors) cursor.close();
+        }
+    }
+
+    /*
+     * Deletes every run file.
+     * */
+    @Override
+    public void close() {
+        for(File run : runs){
+            if(!run.delete()) run.deleteOnExit();
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        Metrics.Timer timer = Metrics.time("spill");
+        try{
+            buffer.sort(reverse);
+            File run = File.createTempFile("mlm-run-", ".bin", dir);
+            runs.add(run);
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER))){
+                for(int row = 0; row < buffer.rows(); row++){
+                    out.writeUTF(buffer.name(row));
+                    out.writeDouble(buffer.score(row));
+                }
+            }
+            Metrics.count("spill.runs");
+            Metrics.count("spill.bytes", run.length());
+        }finally{
+            timer.stop();
+        }
+        spilled.merge(buffer.summary());
+        buffer = new Ranking(Math.min(bufferSize, 1 << 16));
+        buffered = 0;
+    }
+
+    /*
+     * Next row of a run file, or of the sorted buffer still in memory.
+     */
+    private static class Cursor implements Closeable {
+
+        private final DataInputStream in;
+
+        private final Ranking memory;
+
+        private int row = 0;
+
+        private String name;
+
+        private double score;
+
+        private Cursor(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER));
+            memory = null;
+        }
+
+        private Cursor(Ranking memory) {
+            in = null;
+            this.memory = memory;
+        }
+
+        /*
+         * @return                  Whether there was another row to move to
+         * */
+        private boolean next() throws IOException {
+            if(memory != null){
+                if(row >= memory.rows()) return false;
+                name = memory.name(row);
+                score = memory.score(row);
+                row++;
+                return true;
+            }
+            try{
+                name = in.readUTF();
+            }catch(EOFException e){
+                return false;
+            }
+            score = in.readDouble();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(in != null) in.close();
+        }
+    }
+}
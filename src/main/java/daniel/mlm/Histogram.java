@@ -0,0 +1,80 @@
+package daniel.mlm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Distribution of durations in nanoseconds, recorded from any number of threads without locking.
+ * Values are counted in buckets that split every power of two into SUB_BUCKETS equal parts, so a
+ * percentile read back is within 1 / SUB_BUCKETS of the real value while the whole histogram is a
+ * fixed array of counts. The maximum is kept exactly.
+ */
+public class Histogram {
+
+    // Bits of each value kept below its highest bit, giving 2^SUB_BITS buckets per power of two
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /*
+     * @param nanos             Duration to record, negative durations count as 0
+     * */
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /*
+     * @param percentile        Percentile to find, from 0 to 100
+     * @return                  Highest value of the bucket holding that percentile, capped at the
+     *                          maximum, 0 if nothing was recorded
+     * */
+    public long percentile(double percentile) {
+        long total = count();
+        if(total == 0) return 0;
+        long target = Math.max(1, (long)Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if(seen >= target) return Math.min(max(), highest(i));
+        }
+        return max();
+    }
+
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highest(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,112 @@
+package daniel.mlm;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The one HTTP client used for every request of a run: the leaderboard page, Mojang and Hypixel.
+ * Connections are pooled per host and kept alive between requests, so each host only pays for its
+ * TLS handshake once per connection instead of once per player. Responses are requested with
+ * Accept-Encoding: gzip, deflate and decompressed as they are streamed, which the client builder
+ * sets up by default.
+ */
+public class HttpClientPool implements Closeable {
+
+    // How long idle pooled connections are kept when the server does not say otherwise
+    private static final long IDLE_TIMEOUT_MILLIS = 30_000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient client;
+
+    // Connections each caller waits for before sending, one set of permits per host. Waiting inside the
+    // pool would hold a synchronized lock, which pins a virtual thread to its carrier thread, and with
+    // more waiting callers than carriers the callers holding connections can never run to return them.
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final int maxPerHost;
+
+    private final int connectTimeout;
+
+    /*
+     * @param connectTimeout    Milliseconds to wait for a connection to be established
+     * @param readTimeout       Milliseconds to wait between bytes of a response
+     * @param maxPerHost        Maximum open connections to a single host
+     * */
+    public HttpClientPool(int connectTimeout, int readTimeout, int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        this.connectTimeout = connectTimeout;
+        connectionManager = new PoolingHttpClientConnectionManager(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        connectionManager.setMaxTotal(maxPerHost * 4);
+        connectionManager.setValidateAfterInactivity(2_000);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? keepAlive : IDLE_TIMEOUT_MILLIS;
+                })
+                .setUserAgent("Mozilla")
+                .evictIdleConnections(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /*
+     * Sends a request and hands the response to the handler. The response body is fully consumed
+     * afterwards so the connection goes back to the pool instead of being closed.
+     * @param request           Request to send
+     * @param handler           Reads the response
+     * @return                  Whatever the handler returned
+     * */
+    public <T> T execute(HttpUriRequest request, ResponseHandler<T> handler) throws IOException {
+        Semaphore permits = hostPermits.computeIfAbsent(String.valueOf(URIUtils.extractHost(request.getURI())),
+                k -> new Semaphore(maxPerHost, true));
+        try{
+            if(!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)){
+                throw new ConnectionPoolTimeoutException("Timeout waiting for connection to " + request.getURI().getHost());
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for connection");
+        }
+        try{
+            return client.execute(request, handler);
+        }finally{
+            permits.release();
+        }
+    }
+
+    /*
+     * Closes every pooled connection.
+     * */
+    @Override
+    public void close() {
+        try{
+            client.close();
+        }catch(IOException e){
+            System.out.println("Failed to close HTTP connections.");
+            e.printStackTrace();
+        }
+        connectionManager.shutdown();
+    }
+}
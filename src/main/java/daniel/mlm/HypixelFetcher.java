@@ -0,0 +1,490 @@
+package daniel.mlm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/*
+ * Fetches stats from the Mojang and Hypixel APIs, sending the players through UUID lookup and stat
+ * fetching as a pipeline so Mojang and Hypixel are queried at the same time. Every request goes
+ * through a ResilientEndpoint, so a slow or failing API is retried, hedged and paused instead of
+ * holding up the run, and every player that still could not be fetched is handed on with why. One
+ * fetcher is shared by every job of an engine, along with its HTTP client, caches, rate limiters and
+ * endpoints, so jobs running at the same time using the same API key stay within that key's limit
+ * together. A key's limiter keeps the rate of the first job that used it, and a job asking for
+ * another rate is told so. Endpoints are only shared by jobs with the same breaker settings.
+ * Everything else a fetch needs comes from its job.
+ */
+public class HypixelFetcher implements LeaderboardJob.Fetcher {
+
+    // Most usernames Mojang resolves in one bulk lookup
+    private static final int MOJANG_BATCH_SIZE = 10;
+
+    // Times a throttled request is sent again before giving up on the player
+    private static final int THROTTLE_RETRIES = 10;
+
+    // Milliseconds of the first backoff after being throttled, doubled for each retry after
+    private static final long THROTTLE_BACKOFF = 500;
+
+    private final HttpClientPool http;
+
+    // UUIDs remembered from earlier runs, null if disabled
+    private final UuidCache uuidCache;
+
+    // Hypixel responses remembered from earlier runs, null if disabled
+    private final StatsCache statsCache;
+
+    // Rate limiters adjusted to what each API reports, by Hypixel API key or Mojang base URL
+    private final ConcurrentHashMap<String, AdaptiveRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    // Keys and rates of jobs told their rate is not the one in use, so each is only told once
+    private final Set<String> rateConflicts = ConcurrentHashMap.newKeySet();
+
+    // Endpoints of each API, by name, base URL and breaker settings
+    private final ConcurrentHashMap<String, ResilientEndpoint> endpoints = new ConcurrentHashMap<>();
+
+    /*
+     * @param http              Client every request is sent with
+     * @param uuidCache         UUIDs remembered from earlier runs, null to always ask Mojang
+     * @param statsCache        Hypixel responses remembered from earlier runs, null to always ask Hypixel
+     * */
+    public HypixelFetcher(HttpClientPool http, UuidCache uuidCache, StatsCache statsCache) {
+        this.http = http;
+        this.uuidCache = uuidCache;
+        this.statsCache = statsCache;
+    }
+
+    @Override
+    public Map<String, double[]> fetch(LeaderboardJob job, String[] paths, List<String> players,
+                                       Map<String, double[]> known, Consumer<Player> fetched) {
+        return new Fetch(job, paths).run(players, known, fetched);
+    }
+
+    /*
+     * One call of fetch, with the job's settings and the extractor for the paths asked for.
+     */
+    private class Fetch {
+
+        private final LeaderboardJob job;
+
+        private final StatExtractor extractor;
+
+        // Stats of a player that could not be fetched, every one missing
+        private final double[] missingStats;
+
+        // Rate limiter of each of the job's API keys, in the same order
+        private final ArrayList<AdaptiveRateLimiter> hypixelLimiters = new ArrayList<>();
+
+        private final AdaptiveRateLimiter mojangLimiter;
+
+        private final ResilientEndpoint mojang;
+
+        private final ResilientEndpoint hypixel;
+
+        private Fetch(LeaderboardJob job, String[] paths) {
+            this.job = job;
+            extractor = new StatExtractor(paths);
+            missingStats = new double[extractor.size()];
+            Arrays.fill(missingStats, Double.NaN);
+            if(job.apikeys.isEmpty()) throw new IllegalStateException("A job needs an API key to fetch from Hypixel");
+            for(int i = 0; i < job.apikeys.size(); i++){
+                String name = job.apikeys.size() == 1 ? "Hypixel" : "Hypixel key " + (i + 1);
+                hypixelLimiters.add(limiter(job.apikeys.get(i), name, job.hypixelRate));
+            }
+            mojangLimiter = limiter(job.mojangApi, "Mojang", job.mojangRate);
+            mojang = endpoint("Mojang", job.mojangApi);
+            hypixel = endpoint("Hypixel", job.hypixelApi);
+        }
+
+        /*
+         * @param key               Hypixel API key or Mojang base URL the limiter is for
+         * @param name              Name of the limiter if it is new
+         * @param rate              Requests per second the job asks for
+         * @return                  The limiter every job using the key shares
+         * */
+        private AdaptiveRateLimiter limiter(String key, String name, double rate) {
+            AdaptiveRateLimiter limiter = limiters.computeIfAbsent(key, k -> new AdaptiveRateLimiter(name, rate));
+            // The limit is the API's for the key, so jobs cannot each have their own
+            if(limiter.getBaseRate() != rate && rateConflicts.add(key + " " + rate)){
+                System.out.println(limiter.getName() + " is already limited to " + limiter.getBaseRate() +
+                        " requests per second by an earlier job, using that instead of " + rate + ".");
+            }
+            return limiter;
+        }
+
+        private ResilientEndpoint endpoint(String name, String api) {
+            return endpoints.computeIfAbsent(name + " " + api + " " + job.breakerFailures + " " + job.breakerCooldown,
+                    key -> new ResilientEndpoint(name, http, job.breakerFailures, job.breakerCooldown));
+        }
+
+        private HashMap<String, double[]> run(List<String> players, Map<String, double[]> known, Consumer<Player> fetched) {
+            HashMap<String, double[]> stats = new HashMap<>();
+            ArrayList<String> remaining = new ArrayList<>();
+            for(String name : players){
+                String key = name.toLowerCase(Locale.ROOT);
+                if(known.containsKey(key)) stats.put(key, known.get(key));
+                else remaining.add(name);
+            }
+            Metrics.Timer timer = Metrics.time("fetch");
+            Pipeline pipeline = new Pipeline(job.maxInFlight * 2).source(remaining);
+            if(!job.hypixelDirect){
+                if(uuidCache != null) pipeline.stage("UUID cache lookup", 1, null, this::findCachedUUID);
+                pipeline.batchStage("Mojang UUID lookup", job.maxInFlight, MOJANG_BATCH_SIZE, job.mojangLinger, mojangLimiter,
+                        player -> player.uuid != null, this::resolveUUIDs);
+            }
+            if(statsCache != null){
+                pipeline.stage("Stats cache lookup", Runtime.getRuntime().availableProcessors(), null, this::findCachedStats);
+            }
+            pipeline.shardedStage("Hypixel stat check", job.apikeys.size(), job.maxInFlight,
+                    player -> player.stats != null || (!job.hypixelDirect && player.uuid == null), this::fetchStats);
+            pipeline.drain(player -> {
+                if(player.stats == null && player.failure == null) player.failure = "no API key left to fetch with";
+                fetched.accept(player);
+                if(job.debug) checkStats(player);
+                stats.put(player.name.toLowerCase(Locale.ROOT), player.stats);
+                Metrics.count(player.stats != null ? "players.fetched" : "players.missing");
+            });
+            timer.stop();
+            return stats;
+        }
+
+        /*
+         * @param players           Up to MOJANG_BATCH_SIZE players, each given why if the request failed
+         * @return                  Lowercase name - UUID pairs of the players Mojang knows, null if the
+         *                          request failed
+         * */
+        private HashMap<String, String> getUUIDs(List<Player> players) throws ThrottledException {
+            String api = job.mojangApi + "/profiles/minecraft";
+            JsonArray body = new JsonArray();
+            for(Player player : players) body.add(player.name);
+            Metrics.count("mojang.requests");
+            Metrics.Timer timer = Metrics.time("mojang.request");
+            try{
+                return mojang.call(job, mojangLimiter, players.toString(), () -> {
+                    HttpPost request = new HttpPost(api);
+                    request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+                    return request;
+                }, response -> {
+                    mojangLimiter.observe(response);
+                    InputStream in = Metrics.counting(response.getEntity().getContent(), "mojang.bytes");
+                    Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+                    JsonElement root = JsonParser.parseReader(reader);
+                    if(!root.isJsonArray()) throw new ApiException(root.toString());
+                    HashMap<String, String> uuids = new HashMap<>();
+                    for(JsonElement profile : root.getAsJsonArray()){
+                        JsonObject object = profile.getAsJsonObject();
+                        uuids.put(object.get("name").getAsString().toLowerCase(Locale.ROOT), object.get("id").getAsString());
+                    }
+                    return uuids;
+                });
+            }
+            catch (ThrottledException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                Metrics.count("mojang.failures");
+                System.out.println("Failed to obtain UUIDs for usernames: " + players);
+                if(job.debug) e.printStackTrace();
+                for(Player player : players) player.failure = "UUID lookup failed: " + reason(e);
+                return null;
+            }
+            finally {
+                timer.stop();
+            }
+        }
+
+        /*
+         * @param player            The player being checked, given why if the check failed
+         * @param key               Index of the API key to use
+         * @return                  Player stats at the configured paths according to Hypixel API
+         * */
+        private double[] getStats(Player player, int key) throws ThrottledException, RejectedKeyException {
+            String baseUrl = job.hypixelApi + "/v2/player";
+            try{
+                URIBuilder uriBuilder = new URIBuilder(baseUrl)
+                        .addParameter("uuid", player.uuid);
+                return executeHypixel(player, () -> {
+                    HttpGet request = new HttpGet(uriBuilder.toString());
+                    request.addHeader("API-Key", job.apikeys.get(key));
+                    return request;
+                }, key, player.uuid);
+            } catch (ThrottledException | RejectedKeyException e) {
+                throw e;
+            } catch (ApiException e) {
+                Metrics.count("hypixel.failures");
+                System.out.println("Hypixel stat check failed for " + player.name + ".");
+                System.out.println("Reason: " + e.getMessage());
+                player.failure = e.getMessage();
+                return null;
+            } catch (Exception e) {
+                Metrics.count("hypixel.failures");
+                System.out.println("Hypixel stat check failed for " + player.name + ".");
+                if(job.debug) e.printStackTrace();
+                player.failure = reason(e);
+                return null;
+            }
+        }
+
+        /*
+         * @param player            The player being checked, given why if the check failed
+         * @param key               Index of the API key to use
+         * @return                  Player stats at the configured paths according to Hypixel API
+         * */
+        private double[] getStatsDirect(Player player, int key) throws ThrottledException, RejectedKeyException {
+            String url = job.hypixelApi + "/player?name=" + player.name + "&key=" + job.apikeys.get(key);
+            try {
+                return executeHypixel(player, () -> new HttpGet(url), key, StatsCache.nameKey(player.name));
+            } catch (ThrottledException | RejectedKeyException e) {
+                throw e;
+            } catch (ApiException e) {
+                Metrics.count("hypixel.failures");
+                System.out.println("Hypixel stat check failed for " + player.name + ".");
+                System.out.println("Reason: " + e.getMessage());
+                player.failure = e.getMessage();
+                return null;
+            } catch (IOException | RuntimeException e) {
+                Metrics.count("hypixel.failures");
+                System.out.println("Hypixel stat check failed for " + player.name + ".");
+                if(job.debug) e.printStackTrace();
+                player.failure = reason(e);
+                return null;
+            }
+        }
+
+        /*
+         * Sends a request to Hypixel and extracts the stats from its response, timing the wait for the
+         * response to start separately from reading and parsing its body.
+         * @param player            Player the request is for
+         * @param requests          Makes the request for the player, once for every try
+         * @param key               Index of the API key the request is sent with
+         * @param cacheKey          Key to store the response under in the stats cache
+         * @return                  Player stats at the configured paths
+         * */
+        private double[] executeHypixel(Player player, Supplier<HttpUriRequest> requests, int key, String cacheKey) throws IOException {
+            Metrics.count("hypixel.requests");
+            Metrics.Timer timer = Metrics.time("hypixel.request");
+            try{
+                long sent = System.nanoTime();
+                return hypixel.call(job, hypixelLimiters.get(key), player.name, requests, response -> {
+                    Metrics.histogram("hypixel.wait").record(System.nanoTime() - sent);
+                    checkHypixelResponse(key, response);
+                    Metrics.Timer parse = Metrics.time("hypixel.parse");
+                    try{
+                        return readStats(cacheKey, Metrics.counting(response.getEntity().getContent(), "hypixel.bytes"));
+                    }finally{
+                        parse.stop();
+                    }
+                });
+            }finally{
+                timer.stop();
+            }
+        }
+
+        /*
+         * Adjusts the key's rate limiter to a Hypixel response and checks that the key was accepted.
+         * @param key               Index of the API key the request was sent with
+         * @param response          Response from Hypixel
+         * */
+        private void checkHypixelResponse(int key, HttpResponse response) throws ThrottledException, RejectedKeyException {
+            hypixelLimiters.get(key).observe(response);
+            if(response.getStatusLine().getStatusCode() == 403){
+                Metrics.count("hypixel.rejected");
+                throw new RejectedKeyException("API key " + (key + 1) + " was rejected by Hypixel");
+            }
+        }
+
+        /*
+         * Extracts the stats from a Hypixel response, keeping a copy in the stats cache if it is enabled.
+         * @param cacheKey          Key to store the response under in the stats cache
+         * @param in                Body of the response
+         * @return                  Player stats at the configured paths
+         * */
+        private double[] readStats(String cacheKey, InputStream in) throws IOException {
+            if(statsCache != null) in = statsCache.recording(in);
+            double[] stats = extractor.extract(new InputStreamReader(in, StandardCharsets.UTF_8));
+            if(statsCache != null) statsCache.put(cacheKey, in);
+            return stats;
+        }
+
+        /*
+         * Sends a request again while the API answers that it is being sent too many, waiting a random
+         * backoff that doubles with each try and then for the limiter, which the API's answer has already
+         * paused and slowed down.
+         * @param limiter           Rate limiter of the API being queried
+         * @param players           Players the request is for, used in messages
+         * @param call              The request
+         * @return                  Result of the request, null if it was still throttled after every retry
+         * */
+        private <T> T retryThrottled(AdaptiveRateLimiter limiter, String players, ThrottledCall<T> call) {
+            for(int attempt = 1; ; attempt++){
+                try{
+                    return call.call();
+                }catch(ThrottledException e){
+                    Metrics.count("throttled." + limiter.getName());
+                    if(attempt > THROTTLE_RETRIES){
+                        System.out.println(limiter.getName() + " kept throttling requests for " + players + ", giving up after " + attempt + " tries.");
+                        return null;
+                    }
+                    long backoff = ThreadLocalRandom.current().nextLong(1, THROTTLE_BACKOFF << Math.min(attempt, 8));
+                    if(job.debug) System.out.println(limiter.getName() + " throttled request for " + players + ", trying again in " + backoff + "ms or once the limiter's pause is over, whichever is later.");
+                    try{
+                        Thread.sleep(backoff);
+                        limiter.acquire();
+                    }catch(InterruptedException ie){
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Cache stage of the pipeline, filling in UUIDs remembered from earlier runs.
+         * @param player            Player whose UUID to look up
+         * @return                  Whether to pass the player on, which is always true
+         * */
+        private boolean findCachedUUID(Player player) {
+            player.uuid = uuidCache.get(player.name);
+            Metrics.count(player.uuid != null ? "uuidCache.hits" : "uuidCache.misses");
+            if(job.debug && player.uuid != null) System.out.println("Found cached UUID for " + player.name + ".");
+            return true;
+        }
+
+        /*
+         * UUID stage of the pipeline, looking up a group of players with one request. Players Mojang does
+         * not know are left without a UUID.
+         * @param players           Players whose UUIDs to look up, at most MOJANG_BATCH_SIZE
+         * */
+        private void resolveUUIDs(List<Player> players) {
+            if(job.debug) System.out.println("Getting UUIDs for " + players + ".");
+            HashMap<String, String> uuids;
+            Metrics.Timer timer = Metrics.time("uuid.resolve");
+            try{
+                uuids = retryThrottled(mojangLimiter, players.toString(), () -> getUUIDs(players));
+            }finally{
+                timer.stop();
+            }
+            if(uuids == null){
+                for(Player player : players){
+                    if(player.failure == null) player.failure = "Mojang kept throttling the UUID lookup";
+                }
+                return;
+            }
+            for(Player player : players){
+                player.uuid = uuids.get(player.name.toLowerCase(Locale.ROOT));
+                if(player.uuid == null){
+                    System.out.println("Failed to obtain UUID for username: " + player.name);
+                    player.failure = "Mojang does not know this username";
+                }
+                else if(uuidCache != null) uuidCache.put(player.name, player.uuid);
+            }
+        }
+
+        /*
+         * Cache stage of the pipeline, filling in stats from responses fetched within the max age.
+         * @param player            Player whose stats to look up
+         * @return                  Whether to pass the player on, which is always true
+         * */
+        private boolean findCachedStats(Player player) {
+            String key = job.hypixelDirect ? StatsCache.nameKey(player.name) : player.uuid;
+            if(key == null) return true;
+            try(InputStream in = statsCache.get(key)){
+                Metrics.count(in != null ? "statsCache.hits" : "statsCache.misses");
+                if(in != null){
+                    Metrics.Timer timer = Metrics.time("statsCache.parse");
+                    try{
+                        player.stats = extractor.extract(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    }finally{
+                        timer.stop();
+                    }
+                    if(job.debug) System.out.println("Found cached stats for " + player.name + ".");
+                }
+            }catch(IOException e){
+                System.out.println("Unable to read cached stats for " + player.name + ", fetching them instead.");
+                if(job.debug) e.printStackTrace();
+            }
+            return true;
+        }
+
+        /*
+         * Stats stage of the pipeline, run with one of the API keys. A throttled player is put back after a
+         * random backoff for whichever key is free next, and a rejected key hands its players to the others.
+         * @param key               Index of the API key to use
+         * @param player            Player whose stats to fetch
+         * @return                  What to do with the player next
+         * */
+        private Pipeline.Outcome fetchStats(int key, Player player) throws InterruptedException {
+            AdaptiveRateLimiter limiter = hypixelLimiters.get(key);
+            limiter.acquire();
+            if(job.debug) System.out.println("Getting stats for " + player.name + ".");
+            try{
+                player.stats = job.hypixelDirect ? getStatsDirect(player, key) : getStats(player, key);
+                return Pipeline.Outcome.DONE;
+            }catch(ThrottledException e){
+                Metrics.count("throttled." + limiter.getName());
+                player.throttled++;
+                if(player.throttled > THROTTLE_RETRIES){
+                    System.out.println(limiter.getName() + " kept throttling requests for " + player.name + ", giving up after " + player.throttled + " tries.");
+                    player.failure = limiter.getName() + " kept throttling requests";
+                    return Pipeline.Outcome.DONE;
+                }
+                long backoff = ThreadLocalRandom.current().nextLong(1, THROTTLE_BACKOFF << Math.min(player.throttled, 8));
+                if(job.debug) System.out.println(limiter.getName() + " throttled request for " + player.name + ", trying again in " + backoff + "ms.");
+                Thread.sleep(backoff);
+                return Pipeline.Outcome.RETRY;
+            }catch(RejectedKeyException e){
+                System.out.println(e.getMessage() + ", moving its players to the other keys.");
+                return Pipeline.Outcome.RETIRE;
+            }
+        }
+
+        /*
+         * Prints every stat that could not be found for a player.
+         * @param player            Player whose stats were fetched
+         * */
+        private void checkStats(Player player) {
+            double[] playerStats = player.stats == null ? missingStats : player.stats;
+            for(int i = 0; i < playerStats.length; i++){
+                if(Double.isNaN(playerStats[i])){
+                    System.out.println("Stat at: " + extractor.getPath(i) + "\nwas not found or not a number for player " + player.name + ".");
+                }
+            }
+        }
+    }
+
+    private interface ThrottledCall<T> {
+        T call() throws ThrottledException;
+    }
+
+    /*
+     * @return                  Why a request failed, for the list of players that could not be fetched
+     * */
+    private static String reason(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
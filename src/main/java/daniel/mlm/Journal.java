@@ -0,0 +1,189 @@
+package daniel.mlm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Append-only record of every player whose stats have been fetched, so a run that is stopped part
+ * way through can be resumed without fetching those players again. Records are buffered and synced
+ * to disk every SYNC_RECORDS records or SYNC_MILLIS milliseconds, whichever comes first, so a crash
+ * loses at most the last few players. The file starts with the stat paths it was written for, and
+ * a journal written for different paths is not replayed.
+ */
+public class Journal implements Closeable {
+
+    private static final int MAGIC = 0x4d4c4d4a;
+
+    private static final int VERSION = 1;
+
+    // Records written between syncs
+    private static final int SYNC_RECORDS = 64;
+
+    // Milliseconds between syncs
+    private static final long SYNC_MILLIS = 1000;
+
+    private final File file;
+
+    private final String[] paths;
+
+    private FileOutputStream fileOut;
+
+    private DataOutputStream out;
+
+    private int unsynced = 0;
+
+    private long lastSync = System.currentTimeMillis();
+
+    /*
+     * @param file              File the journal is kept in
+     * @param paths             Stat paths the recorded stats are for
+     * */
+    public Journal(File file, String[] paths) {
+        this.file = file;
+        this.paths = paths.clone();
+    }
+
+    /*
+     * Reads every complete record of the journal. A record cut off by a crash ends the replay, and is
+     * cut off the file so new records follow on from the last complete one.
+     * @return                  Players in the journal with their UUIDs and stats, empty if there is no
+     *                          journal or it was written for different stat paths
+     * */
+    public ArrayList<Player> replay() throws IOException {
+        ArrayList<Player> players = new ArrayList<>();
+        if(!file.exists()) return players;
+        long good;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))){
+            good = readHeader(in);
+            if(good < 0){
+                System.out.println("Journal " + file + " is for different stats, starting over.");
+                return players;
+            }
+            try{
+                while(true){
+                    String name = in.readUTF();
+                    String uuid = in.readUTF();
+                    int length = in.readUnsignedShort();
+                    double[] stats = new double[length];
+                    for(int i = 0; i < length; i++) stats[i] = in.readDouble();
+                    Player player = new Player(name);
+                    player.uuid = uuid.isEmpty() ? null : uuid;
+                    player.stats = stats;
+                    players.add(player);
+                    good += recordLength(name, uuid, length);
+                }
+            }catch(EOFException e){
+                // End of the journal, or a record cut off part way through
+            }
+        }
+        if(good < file.length()){
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+                raf.setLength(good);
+            }
+        }
+        return players;
+    }
+
+    /*
+     * Opens the journal for new records.
+     * @param keep              Whether to add to the existing journal rather than start a new one,
+     *                          only safe after replay found records for these paths
+     * */
+    public synchronized void open(boolean keep) throws IOException {
+        boolean append = keep && file.exists() && file.length() > 0;
+        fileOut = new FileOutputStream(file, append);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        if(!append){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeShort(paths.length);
+            for(String path : paths) out.writeUTF(path);
+            sync();
+        }
+    }
+
+    /*
+     * @param player            Player whose stats have been fetched
+     * */
+    public synchronized void append(Player player) throws IOException {
+        if(out == null || player.stats == null) return;
+        out.writeUTF(player.name);
+        out.writeUTF(player.uuid == null ? "" : player.uuid);
+        out.writeShort(player.stats.length);
+        for(double stat : player.stats) out.writeDouble(stat);
+        unsynced++;
+        if(unsynced >= SYNC_RECORDS || System.currentTimeMillis() - lastSync >= SYNC_MILLIS) sync();
+    }
+
+    /*
+     * Deletes the journal once the run it was for has finished.
+     * */
+    public synchronized void delete() {
+        close();
+        if(file.exists() && !file.delete()) System.out.println("Unable to delete journal " + file + ".");
+    }
+
+    @Override
+    public synchronized void close() {
+        if(out == null) return;
+        try{
+            sync();
+            out.close();
+        }catch(IOException e){
+            System.out.println("Unable to save journal " + file + ".");
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+    private void sync() throws IOException {
+        out.flush();
+        fileOut.getChannel().force(false);
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /*
+     * @return                  Length of the header in bytes, -1 if it is not for these paths
+     * */
+    private long readHeader(DataInputStream in) throws IOException {
+        try{
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return -1;
+            int count = in.readUnsignedShort();
+            String[] written = new String[count];
+            long length = 10;
+            for(int i = 0; i < count; i++){
+                written[i] = in.readUTF();
+                length += 2 + utfLength(written[i]);
+            }
+            return Arrays.equals(written, paths) ? length : -1;
+        }catch(EOFException e){
+            return -1;
+        }
+    }
+
+    private static long recordLength(String name, String uuid, int stats) {
+        return 2 + utfLength(name) + 2 + utfLength(uuid) + 2 + 8L * stats;
+    }
+
+    // Length of a string in modified UTF-8 as written by writeUTF, without its length prefix
+    private static int utfLength(String s) {
+        int length = 0;
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            length += c >= 1 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,46 @@
+package daniel.mlm;
+
+import java.util.List;
+
+/*
+ * One leaderboard to create: where its players come from, how their stats are combined and where it
+ * is written. A run creates one from the command line, or one for each line of a config file.
+ */
+public class LeaderboardDefinition {
+
+    // URLs of the Hypixel leaderboard webpages the players come from
+    public final List<String> urls;
+
+    // Number of players from each leaderboard to check, starting from the top
+    public final int playerCount;
+
+    // Formula turning a player's stats into their processed stat
+    public final StatFormula formula;
+
+    // Number of decimals to preserve in processed stats
+    public final int decimals;
+
+    // Whether to order the leaderboard from least to most
+    public final boolean reverse;
+
+    // Number of rows to write, starting from the top, 0 for every player
+    public final int top;
+
+    // Name of the output file, null to name it after the date and time
+    public final String fileName;
+
+    // Format the output file is written in
+    public final LeaderboardWriter.Format format;
+
+    public LeaderboardDefinition(List<String> urls, int playerCount, StatFormula formula, int decimals,
+                                 boolean reverse, int top, String fileName, LeaderboardWriter.Format format) {
+        this.urls = List.copyOf(urls);
+        this.playerCount = playerCount;
+        this.formula = formula;
+        this.decimals = decimals;
+        this.reverse = reverse;
+        this.top = top;
+        this.fileName = fileName;
+        this.format = format;
+    }
+}
@@ -0,0 +1,486 @@
+package daniel.mlm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/*
+ * Runs LeaderboardJobs: gets each job's players, fetches their stats, scores every leaderboard, writes
+ * them out and adds them to their history, with whichever stages the job plugs in. Jobs run on the
+ * engine's executor and share its HTTP client, caches and rate limiters, so any number of them can run
+ * at the same time. A job can also be run over a file of players of any size, kept refreshing, or
+ * scored again from saved stats. The engine does not own any of its resources, whoever made them
+ * closes them once every job is done.
+ *
+ * try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+ *     HttpClientPool http = new HttpClientPool(10000, 30000, 16)){
+ *     LeaderboardEngine engine = new LeaderboardEngine(executor, http, null, null);
+ *     LeaderboardResult result = engine.submit(job).join();
+ * }
+ */
+public class LeaderboardEngine {
+
+    // Players that could not be fetched listed by reportFailures
+    public static final int FAILURES_SHOWN = 10;
+
+    // Players read from a players file and fetched at a time
+    private static final int FILE_CHUNK = 10_000;
+
+    private final Executor executor;
+
+    private final HttpClientPool http;
+
+    // Fetcher used by jobs that do not plug in their own
+    private final HypixelFetcher fetcher;
+
+    /*
+     * @param executor          Executor jobs are run on
+     * @param http              Client every request of every job is sent with
+     * @param uuidCache         UUIDs remembered from earlier runs, null to always ask Mojang
+     * @param statsCache        Hypixel responses remembered from earlier runs, null to always ask Hypixel
+     * */
+    public LeaderboardEngine(Executor executor, HttpClientPool http, UuidCache uuidCache, StatsCache statsCache) {
+        this.executor = executor;
+        this.http = http;
+        fetcher = new HypixelFetcher(http, uuidCache, statsCache);
+    }
+
+    /*
+     * @return                  The fetcher of jobs that do not plug in their own, for fetchers that
+     *                          wrap it
+     * */
+    public LeaderboardJob.Fetcher fetcher() {
+        return fetcher;
+    }
+
+    /*
+     * @param job               Job to run
+     * @return                  Future completed with the job's leaderboards, or exceptionally with
+     *                          whatever stopped it
+     * */
+    public CompletableFuture<LeaderboardResult> submit(LeaderboardJob job) {
+        return submit(job, Map.of());
+    }
+
+    /*
+     * @param job               Job to run
+     * @param known             Lowercase username - stats pairs of players that do not need fetching
+     * @return                  Future completed with the job's leaderboards, or exceptionally with
+     *                          whatever stopped it
+     * */
+    public CompletableFuture<LeaderboardResult> submit(LeaderboardJob job, Map<String, double[]> known) {
+        return CompletableFuture.supplyAsync(() -> {
+            try{
+                return run(job, known);
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /*
+     * Ranks the players listed in a file without ever holding all of them. The file is read
+     * FILE_CHUNK players at a time, each chunk is fetched and scored for every leaderboard, and the
+     * scores go to an ExternalRanking per leaderboard that spills to disk every sortBuffer players.
+     * The rankings are then merged straight into the writer. History is not kept.
+     * @param job               Job to rank the players for, its player source is not used
+     * @param playersFile       File of usernames, one per line, with lines starting with # ignored
+     * @param sortBuffer        Players of each leaderboard sorted in memory before being spilled
+     * @param dir               Directory the spilled run files are written to
+     * @param writer            Writer of each merged leaderboard
+     * @return                  Number of players ranked
+     * @throws IOException      If the players file could not be read or a leaderboard written
+     * */
+    public long rankFile(LeaderboardJob job, File playersFile, int sortBuffer, File dir, ExternalWriter writer) throws IOException {
+        HashMap<String, double[]> known = new HashMap<>();
+        Journal journal = job.journal != null ? openJournal(job, known) : null;
+        String[] paths = job.paths();
+        double[] missingStats = new double[paths.length];
+        Arrays.fill(missingStats, Double.NaN);
+        ArrayList<ExternalRanking> rankings = new ArrayList<>();
+        ArrayList<StatFormula> formulas = new ArrayList<>();
+        for(LeaderboardDefinition definition : job.definitions){
+            rankings.add(new ExternalRanking(sortBuffer, definition.reverse, dir));
+            formulas.add(definition.formula.over(paths));
+        }
+        try(BufferedReader reader = Files.newBufferedReader(playersFile.toPath(), StandardCharsets.UTF_8)){
+            long total = 0;
+            long failed = 0;
+            // Only the failures that get listed are kept, a file can have any number of them
+            LinkedHashMap<String, String> failures = new LinkedHashMap<>();
+            LinkedHashMap<String, String> chunkFailures = new LinkedHashMap<>();
+            ArrayList<String> chunk = new ArrayList<>(FILE_CHUNK);
+            for(String line = reader.readLine(); ; line = reader.readLine()){
+                if(line != null){
+                    line = line.trim();
+                    if(!line.isEmpty() && !line.startsWith("#")) chunk.add(line);
+                    if(chunk.size() < FILE_CHUNK) continue;
+                }
+                if(chunk.isEmpty()) break;
+                ArrayList<String> players = distinct(List.of(chunk));
+                Map<String, double[]> stats = fetch(job, players, known, journal, chunkFailures);
+                failed += chunkFailures.size();
+                for(Map.Entry<String, String> failure : chunkFailures.entrySet()){
+                    if(failures.size() == FAILURES_SHOWN) break;
+                    failures.put(failure.getKey(), failure.getValue());
+                }
+                chunkFailures.clear();
+                Metrics.Timer scoring = Metrics.time("score");
+                try{
+                    for(int i = 0; i < job.definitions.size(); i++){
+                        for(String name : players){
+                            double[] playerStats = stats.get(name.toLowerCase(Locale.ROOT));
+                            double score = formulas.get(i).evaluate(playerStats == null ? missingStats : playerStats);
+                            rankings.get(i).add(name, Rounding.roundTo(score, job.definitions.get(i).decimals));
+                        }
+                    }
+                }finally{
+                    scoring.stop();
+                }
+                total += players.size();
+                System.out.println("Checked " + total + " players.");
+                chunk.clear();
+                if(line == null) break;
+            }
+            reportFailures(failures, failed, total);
+            for(int i = 0; i < job.definitions.size(); i++) writer.write(i, job.definitions.get(i), rankings.get(i));
+            if(job.historyDir != null) System.out.println("History is not kept for leaderboards ranked from a players file.");
+            if(journal != null) journal.delete();
+            return total;
+        }finally{
+            if(journal != null) journal.close();
+            for(ExternalRanking ranking : rankings) ranking.close();
+        }
+    }
+
+    /*
+     * Scores every leaderboard of a job again from saved stats, without fetching anything, then writes
+     * them with the job's writer and adds them to their history. Every leaderboard ranks every player
+     * in the saved stats.
+     * @param job               Job whose leaderboards to score, only its definitions, writer and
+     *                          history are used
+     * @param matrix            Stats saved by an earlier run
+     * @return                  Each leaderboard in leaderboard order, in the order of the definitions
+     * @throws IllegalArgumentException If a formula uses a stat path that was not saved
+     * */
+    public static List<Ranking> rescore(LeaderboardJob job, StatMatrix matrix) throws IOException {
+        long start = System.nanoTime();
+        ArrayList<Ranking> leaderboards = new ArrayList<>();
+        for(LeaderboardDefinition definition : job.definitions){
+            double[] scores;
+            Metrics.Timer scoring = Metrics.time("score");
+            try{
+                scores = matrix.score(definition.formula);
+            }finally{
+                scoring.stop();
+            }
+            Ranking leaderboard = new Ranking(matrix.rows());
+            for(int row = 0; row < matrix.rows(); row++) leaderboard.add(matrix.name(row), Rounding.roundTo(scores[row], definition.decimals));
+            Metrics.Timer sorting = Metrics.time("sort");
+            try{
+                if(definition.top > 0) leaderboard.top(definition.top, definition.reverse);
+                else leaderboard.sort(definition.reverse);
+            }finally{
+                sorting.stop();
+            }
+            leaderboards.add(leaderboard);
+        }
+        System.out.println("Scored " + matrix.rows() + " players for " + job.definitions.size() + " leaderboards in " +
+                (System.nanoTime() - start) / 1_000_000 + "ms.");
+        if(job.writer != null){
+            for(int i = 0; i < job.definitions.size(); i++) job.writer.write(i, job.definitions.get(i), leaderboards.get(i));
+        }
+        recordHistory(job, leaderboards);
+        return leaderboards;
+    }
+
+    /*
+     * Keeps a job's leaderboards up to date until the thread is interrupted. Each refresh gets the
+     * players again but only fetches the ones that are new or whose stats are older than
+     * playerMaxAge, so keeping every player fresh is spread out over the day instead of refetching
+     * everyone at once. Refreshes are not journaled, one that does not finish is simply run again.
+     * @param job               Job to keep running
+     * @param refreshMillis     Milliseconds from the start of one refresh to the start of the next
+     * @param playerMaxAge      Milliseconds a player's stats are reused for before fetching them again
+     * @param refreshed         Called with the result of every refresh that finished, anything it
+     *                          throws is reported and the last leaderboards kept
+     * */
+    public void serve(LeaderboardJob job, long refreshMillis, long playerMaxAge, Consumer<LeaderboardResult> refreshed) throws InterruptedException {
+        LeaderboardJob refresh = job.toBuilder()
+                .journal(null)
+                .fetcher(refreshingFetcher(job.fetcher != null ? job.fetcher : fetcher, playerMaxAge, new HashMap<>(), new HashMap<>()))
+                .build();
+        while(!Thread.currentThread().isInterrupted()){
+            long start = System.currentTimeMillis();
+            try{
+                refreshed.accept(submit(refresh).join());
+                System.out.println("Leaderboards updated in " + (System.currentTimeMillis() - start) / 1000 + "s.");
+            }catch(RuntimeException e){
+                System.out.println("Unable to update leaderboards, serving the last ones until the next refresh.");
+                if(job.debug) e.printStackTrace();
+            }
+            Thread.sleep(Math.max(0, refreshMillis - (System.currentTimeMillis() - start)));
+        }
+    }
+
+    /*
+     * Adds a snapshot of each leaderboard to its history, if the job keeps history.
+     * @param leaderboards      Rankings sorted into leaderboard order, in the order of the definitions
+     * */
+    public static void recordHistory(LeaderboardJob job, List<Ranking> leaderboards) {
+        if(job.historyDir == null) return;
+        long now = System.currentTimeMillis();
+        Metrics.Timer timer = Metrics.time("history");
+        try{
+            for(int i = 0; i < job.definitions.size(); i++){
+                try(SnapshotStore store = new SnapshotStore(historyDir(job, i))){
+                    store.append(leaderboards.get(i), now);
+                }catch(IOException e){
+                    System.out.println("Unable to add to the history of " + job.name(i) + ".");
+                    if(job.debug) e.printStackTrace();
+                }
+            }
+        }finally{
+            timer.stop();
+        }
+    }
+
+    /*
+     * @param index             Position of a leaderboard in the definitions of a job that keeps history
+     * @return                  Directory the leaderboard's history is kept in
+     * */
+    public static File historyDir(LeaderboardJob job, int index) {
+        return new File(job.historyDir, job.name(index) + ".history");
+    }
+
+    /*
+     * Fetches the stats of players with the job's fetcher, journaling them if a journal is given.
+     * @param job               Job the players are for
+     * @param players           Usernames, each only once
+     * @param known             Lowercase username - stats pairs of players that do not need fetching
+     * @param journal           Opened journal to record fetched players in, null to not record them
+     * @param failures          Filled with the username - reason pairs of every player that could not
+     *                          be fetched
+     * @return                  Lowercase username - stats pairs of every player, stats are null for
+     *                          players that could not be fetched
+     * */
+    public Map<String, double[]> fetch(LeaderboardJob job, List<String> players, Map<String, double[]> known, Journal journal,
+                                       Map<String, String> failures) {
+        LeaderboardJob.Fetcher jobFetcher = job.fetcher != null ? job.fetcher : fetcher;
+        Map<String, double[]> stats = jobFetcher.fetch(job, job.paths(), players, known, player -> {
+            if(player.stats == null){
+                synchronized(failures){
+                    failures.put(player.name, player.failure == null ? "not fetched" : player.failure);
+                }
+            }
+            if(journal == null) return;
+            try{
+                journal.append(player);
+            }catch(IOException e){
+                System.out.println("Unable to write " + player.name + " to the journal.");
+                if(job.debug) e.printStackTrace();
+            }
+        });
+        // Fetchers that do not hand on every player still cannot drop one without it being reported
+        synchronized(failures){
+            for(String name : players){
+                if(stats.get(name.toLowerCase(Locale.ROOT)) == null) failures.putIfAbsent(name, "not fetched");
+            }
+        }
+        return stats;
+    }
+
+    /*
+     * Prints how many players could not be fetched, and the first few of them with why.
+     * @param failures          Username - reason pairs of players that could not be fetched, only the
+     *                          first FAILURES_SHOWN are printed so the rest need not be kept
+     * @param failed            Number of players that could not be fetched
+     * @param players           Number of players that were fetched
+     * */
+    public static void reportFailures(Map<String, String> failures, long failed, long players) {
+        if(failed == 0) return;
+        StringBuilder message = new StringBuilder("Could not fetch the stats of " + failed + " of " + players +
+                " players, they are ranked last without stats:");
+        int shown = 0;
+        for(Map.Entry<String, String> failure : failures.entrySet()){
+            if(shown == FAILURES_SHOWN) break;
+            shown++;
+            message.append(System.lineSeparator()).append("  ").append(failure.getKey()).append(": ").append(failure.getValue());
+        }
+        if(failed > shown) message.append(System.lineSeparator()).append("  and ").append(failed - shown).append(" more");
+        System.out.println(message);
+    }
+
+    /*
+     * Opens the job's journal, first replaying it if resuming.
+     * @param job               Job with a journal
+     * @param known             Filled with the lowercase username - stats pairs of the players
+     *                          already done
+     * @return                  The journal, recording nothing if it could not be opened
+     * */
+    public static Journal openJournal(LeaderboardJob job, Map<String, double[]> known) {
+        Journal journal = new Journal(job.journal, job.paths());
+        try{
+            if(job.resume){
+                if(job.debug) System.out.println("Replaying journal.");
+                ArrayList<Player> done = journal.replay();
+                for(Player player : done) known.putIfAbsent(player.name.toLowerCase(Locale.ROOT), player.stats);
+                System.out.println("Resuming with " + done.size() + " players already done.");
+            }
+            journal.open(!known.isEmpty());
+        }catch(IOException e){
+            System.out.println("Unable to use journal, progress will not be saved.");
+            if(job.debug) e.printStackTrace();
+        }
+        return journal;
+    }
+
+    /*
+     * @param boardPlayers      Usernames of each leaderboard
+     * @return                  Every username, each only once
+     * */
+    public static ArrayList<String> distinct(List<? extends List<String>> boardPlayers) {
+        LinkedHashMap<String, String> players = new LinkedHashMap<>();
+        for(List<String> names : boardPlayers){
+            for(String name : names) players.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
+        }
+        return new ArrayList<>(players.values());
+    }
+
+    /*
+     * Wraps a fetcher to only fetch the players that are new or whose stats are older than
+     * playerMaxAge, reusing the stats of the rest. A player who could not be fetched again keeps their
+     * old stats, and is tried again on the next refresh.
+     * @param fetcher           Fetcher of the players that need fetching
+     * @param playerMaxAge      Milliseconds a player's stats are reused for
+     * @param known             Lowercase username - stats pairs from earlier refreshes, kept up to date
+     * @param fetchedAt         Lowercase username - time fetched pairs of known, kept up to date
+     * @return                  The wrapping fetcher
+     * */
+    private static LeaderboardJob.Fetcher refreshingFetcher(LeaderboardJob.Fetcher fetcher, long playerMaxAge,
+                                                           HashMap<String, double[]> known, HashMap<String, Long> fetchedAt) {
+        return (job, paths, players, given, fetched) -> {
+            long start = System.currentTimeMillis();
+            HashMap<String, double[]> fresh = new HashMap<>(given);
+            for(String name : players){
+                String key = name.toLowerCase(Locale.ROOT);
+                Long time = fetchedAt.get(key);
+                if(time != null && start - time < playerMaxAge) fresh.put(key, known.get(key));
+            }
+            if(job.debug) System.out.println("Fetching stats of " + (players.size() - fresh.size()) + " of " + players.size() + " players.");
+            Map<String, double[]> stats = fetcher.fetch(job, paths, players, fresh, fetched);
+            HashMap<String, double[]> nextKnown = new HashMap<>();
+            HashMap<String, Long> nextFetchedAt = new HashMap<>();
+            for(Map.Entry<String, double[]> entry : stats.entrySet()){
+                String key = entry.getKey();
+                if(fresh.containsKey(key)){
+                    nextKnown.put(key, entry.getValue());
+                    if(fetchedAt.containsKey(key)) nextFetchedAt.put(key, fetchedAt.get(key));
+                }
+                else if(entry.getValue() != null){
+                    nextKnown.put(key, entry.getValue());
+                    nextFetchedAt.put(key, start);
+                }
+                else if(known.get(key) != null){
+                    // Keep serving the old stats and try the player again next refresh
+                    entry.setValue(known.get(key));
+                    nextKnown.put(key, known.get(key));
+                }
+            }
+            known.clear();
+            known.putAll(nextKnown);
+            fetchedAt.clear();
+            fetchedAt.putAll(nextFetchedAt);
+            return stats;
+        };
+    }
+
+    /*
+     * The default scorer, evaluating the definition's formula for every player, rounding and sorting.
+     * Players without stats are scored with every stat missing.
+     * */
+    public static Ranking score(LeaderboardDefinition definition, String[] paths, List<String> players, Map<String, double[]> stats) {
+        StatFormula formula = definition.formula.over(paths);
+        double[] missingStats = new double[paths.length];
+        Arrays.fill(missingStats, Double.NaN);
+        Ranking leaderboard = new Ranking(players.size());
+        Metrics.Timer scoring = Metrics.time("score");
+        try{
+            for(String name : players){
+                double[] playerStats = stats.get(name.toLowerCase(Locale.ROOT));
+                leaderboard.add(name, Rounding.roundTo(formula.evaluate(playerStats == null ? missingStats : playerStats), definition.decimals));
+            }
+        }finally{
+            scoring.stop();
+        }
+        Metrics.Timer sorting = Metrics.time("sort");
+        try{
+            if(definition.top > 0) leaderboard.top(definition.top, definition.reverse);
+            else leaderboard.sort(definition.reverse);
+        }finally{
+            sorting.stop();
+        }
+        return leaderboard;
+    }
+
+    /*
+     * Writes out a leaderboard ranked from a players file.
+     */
+    public interface ExternalWriter {
+        /*
+         * @param index         Position of the leaderboard in the definitions
+         * */
+        void write(int index, LeaderboardDefinition definition, ExternalRanking ranking) throws IOException;
+    }
+
+    /*
+     * Runs every stage of a job. Every player is fetched once however many leaderboards they are on,
+     * and every leaderboard is scored from the same stats. If no leaderboard has any players nothing is
+     * fetched or written.
+     * */
+    private LeaderboardResult run(LeaderboardJob job, Map<String, double[]> known) throws IOException {
+        if(job.debug) System.out.println("Getting players.");
+        List<? extends List<String>> boardPlayers = job.source.players(job, http);
+        ArrayList<String> players = distinct(boardPlayers);
+        String[] paths = job.paths();
+        ArrayList<Ranking> leaderboards = new ArrayList<>();
+        LinkedHashMap<String, String> failures = new LinkedHashMap<>();
+        if(players.isEmpty()){
+            for(int i = 0; i < job.definitions.size(); i++) leaderboards.add(new Ranking(0));
+            return new LeaderboardResult(job, players, paths, new HashMap<>(), failures, leaderboards);
+        }
+        if(job.definitions.size() > 1) System.out.println("Checking " + players.size() + " players for " + job.definitions.size() + " leaderboards.");
+        HashMap<String, double[]> done = new HashMap<>(known);
+        Journal journal = job.journal != null ? openJournal(job, done) : null;
+        try{
+            if(job.debug) System.out.println("Fetching stats.");
+            Map<String, double[]> stats = fetch(job, players, done, journal, failures);
+            reportFailures(failures, failures.size(), players.size());
+            for(int i = 0; i < job.definitions.size(); i++){
+                if(job.debug) System.out.println("Creating leaderboard " + (i + 1) + ".");
+                leaderboards.add(job.scorer.score(job.definitions.get(i), paths, boardPlayers.get(i), stats));
+            }
+            if(job.writer != null){
+                for(int i = 0; i < job.definitions.size(); i++) job.writer.write(i, job.definitions.get(i), leaderboards.get(i));
+            }
+            recordHistory(job, leaderboards);
+            if(journal != null) journal.delete();
+            return new LeaderboardResult(job, players, paths, stats, failures, leaderboards);
+        }finally{
+            if(journal != null) journal.close();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package daniel.mlm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+ * Everything one run of the machine needs: the leaderboards to create, how to reach the APIs, and the
+ * stages that get the players, fetch their stats, score the leaderboards and write them out. A job
+ * never changes once built, so any number of them can be run at the same time by a
+ * LeaderboardEngine. Jobs are made with a Builder, starting from the same defaults as the command
+ * line.
+ *
+ * LeaderboardJob job = LeaderboardJob.builder()
+ *         .apikeys(List.of(key))
+ *         .definition(definition)
+ *         .build();
+ */
+public class LeaderboardJob {
+
+    // Leaderboards to create, in order
+    public final List<LeaderboardDefinition> definitions;
+
+    // Hypixel API keys, players are shared out between them
+    public final List<String> apikeys;
+
+    // Whether to fetch stats from Hypixel by name, skipping UUID lookup
+    public final boolean hypixelDirect;
+
+    // Base URL of the Mojang API
+    public final String mojangApi;
+
+    // Base URL of the Hypixel API
+    public final String hypixelApi;
+
+    // Mojang requests per second
+    public final double mojangRate;
+
+    // Hypixel requests per second for each key
+    public final double hypixelRate;
+
+    // Milliseconds to wait for a full batch of Mojang lookups
+    public final int mojangLinger;
+
+    // Requests in flight at a time for each stage
+    public final int maxInFlight;
+
+    // Milliseconds an API request may take in total before it is aborted
+    public final int requestTimeout;
+
+    // Times a failed or timed out API request is sent again
+    public final int retries;
+
+    // Milliseconds of the most the first retry is delayed by, doubled for each retry after
+    public final int retryBackoff;
+
+    // Whether to send a duplicate of an API request that is slower than 95% of answers
+    public final boolean hedge;
+
+    // Failed API requests in a row that pause the API, 0 to never pause it
+    public final int breakerFailures;
+
+    // Milliseconds an API is paused for after failing repeatedly
+    public final int breakerCooldown;
+
+    // Paths of stats to fetch on top of the ones the leaderboards use
+    public final List<String> keepPaths;
+
+    // File to journal fetched players to, null to not journal them
+    public final File journal;
+
+    // Whether to carry on from the journal of an earlier run that did not finish
+    public final boolean resume;
+
+    // Directory each leaderboard's history is kept in as <name>.history, null to not keep history
+    public final File historyDir;
+
+    // Whether to show debug/progress messages
+    public final boolean debug;
+
+    public final PlayerSource source;
+
+    // Fetcher to use, null for the engine's Hypixel fetcher
+    public final Fetcher fetcher;
+
+    public final Scorer scorer;
+
+    // Writer of the finished leaderboards, null to only return them
+    public final Writer writer;
+
+    private LeaderboardJob(Builder builder) {
+        definitions = List.copyOf(builder.definitions);
+        apikeys = List.copyOf(builder.apikeys);
+        hypixelDirect = builder.hypixelDirect;
+        mojangApi = builder.mojangApi;
+        hypixelApi = builder.hypixelApi;
+        mojangRate = builder.mojangRate;
+        hypixelRate = builder.hypixelRate;
+        mojangLinger = builder.mojangLinger;
+        maxInFlight = builder.maxInFlight;
+        requestTimeout = builder.requestTimeout;
+        retries = builder.retries;
+        retryBackoff = builder.retryBackoff;
+        hedge = builder.hedge;
+        breakerFailures = builder.breakerFailures;
+        breakerCooldown = builder.breakerCooldown;
+        keepPaths = List.copyOf(builder.keepPaths);
+        journal = builder.journal;
+        resume = builder.resume;
+        historyDir = builder.historyDir;
+        debug = builder.debug;
+        source = builder.source;
+        fetcher = builder.fetcher;
+        scorer = builder.scorer;
+        writer = builder.writer;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /*
+     * @return                  Builder starting from every setting of this job
+     * */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.definitions = new ArrayList<>(definitions);
+        builder.apikeys = new ArrayList<>(apikeys);
+        builder.hypixelDirect = hypixelDirect;
+        builder.mojangApi = mojangApi;
+        builder.hypixelApi = hypixelApi;
+        builder.mojangRate = mojangRate;
+        builder.hypixelRate = hypixelRate;
+        builder.mojangLinger = mojangLinger;
+        builder.maxInFlight = maxInFlight;
+        builder.requestTimeout = requestTimeout;
+        builder.retries = retries;
+        builder.retryBackoff = retryBackoff;
+        builder.hedge = hedge;
+        builder.breakerFailures = breakerFailures;
+        builder.breakerCooldown = breakerCooldown;
+        builder.keepPaths = new ArrayList<>(keepPaths);
+        builder.journal = journal;
+        builder.resume = resume;
+        builder.historyDir = historyDir;
+        builder.debug = debug;
+        builder.source = source;
+        builder.fetcher = fetcher;
+        builder.scorer = scorer;
+        builder.writer = writer;
+        return builder;
+    }
+
+    /*
+     * @return                  Every stat path the leaderboards use followed by keepPaths, each once,
+     *                          in the order fetched stats are in
+     * */
+    public String[] paths() {
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        for(LeaderboardDefinition definition : definitions) paths.addAll(Arrays.asList(definition.formula.paths()));
+        paths.addAll(keepPaths);
+        return paths.toArray(new String[0]);
+    }
+
+    /*
+     * @param index             Position of a leaderboard in the definitions
+     * @return                  Name the leaderboard is served and kept under: its fileName without
+     *                          extension, or leaderboard numbered if there are several
+     * */
+    public String name(int index) {
+        String name = definitions.get(index).fileName;
+        if(name != null) return LeaderboardWriter.stripExtension(name);
+        return definitions.size() > 1 ? "leaderboard-" + (index + 1) : "leaderboard";
+    }
+
+    /*
+     * Gets the usernames of each leaderboard.
+     */
+    public interface PlayerSource {
+        /*
+         * @return              Usernames of each leaderboard, in the order of the definitions
+         * */
+        List<? extends List<String>> players(LeaderboardJob job, HttpClientPool http) throws IOException;
+    }
+
+    /*
+     * Gets the stats of players.
+     */
+    public interface Fetcher {
+        /*
+         * @param paths         Stat paths to fetch, in the order the stats are returned in
+         * @param players       Usernames, each only once
+         * @param known         Lowercase username - stats pairs of players that do not need fetching
+         * @param fetched       Called with every player once they have been fetched
+         * @return              Lowercase username - stats pairs of every player, stats are null for
+         *                      players that could not be fetched
+         * */
+        Map<String, double[]> fetch(LeaderboardJob job, String[] paths, List<String> players,
+                                    Map<String, double[]> known, Consumer<Player> fetched);
+    }
+
+    /*
+     * Turns stats into a sorted leaderboard.
+     */
+    public interface Scorer {
+        /*
+         * @param paths         Stat paths the stats are in the order of
+         * @param players       Usernames of the leaderboard
+         * @param stats         Lowercase username - stats pairs, null or absent where not fetched
+         * @return              The leaderboard sorted into leaderboard order
+         * */
+        Ranking score(LeaderboardDefinition definition, String[] paths, List<String> players, Map<String, double[]> stats);
+    }
+
+    /*
+     * Writes out a finished leaderboard.
+     */
+    public interface Writer {
+        /*
+         * @param index         Position of the leaderboard in the definitions
+         * */
+        void write(int index, LeaderboardDefinition definition, Ranking leaderboard) throws IOException;
+    }
+
+    public static class Builder {
+
+        private List<LeaderboardDefinition> definitions = new ArrayList<>();
+
+        private List<String> apikeys = new ArrayList<>();
+
+        private boolean hypixelDirect = false;
+
+        private String mojangApi = "https://api.mojang.com";
+
+        private String hypixelApi = "https://api.hypixel.net";
+
+        private double mojangRate = 0.5;
+
+        private double hypixelRate = 0.5;
+
+        private int mojangLinger = 100;
+
+        private int maxInFlight = 16;
+
+        private int requestTimeout = 45000;
+
+        private int retries = 3;
+
+        private int retryBackoff = 500;
+
+        private boolean hedge = false;
+
+        private int breakerFailures = 5;
+
+        private int breakerCooldown = 10000;
+
+        private List<String> keepPaths = new ArrayList<>();
+
+        private File journal = null;
+
+        private boolean resume = false;
+
+        private File historyDir = null;
+
+        private boolean debug = false;
+
+        private PlayerSource source = (job, http) -> LeaderboardScraper.scrape(job.definitions, http, job.debug);
+
+        private Fetcher fetcher = null;
+
+        private Scorer scorer = LeaderboardEngine::score;
+
+        private Writer writer = null;
+
+        private Builder() {
+        }
+
+        public Builder definitions(List<LeaderboardDefinition> definitions) {
+            this.definitions = new ArrayList<>(definitions);
+            return this;
+        }
+
+        public Builder definition(LeaderboardDefinition definition) {
+            definitions.add(definition);
+            return this;
+        }
+
+        public Builder apikeys(List<String> apikeys) {
+            this.apikeys = new ArrayList<>(apikeys);
+            return this;
+        }
+
+        public Builder hypixelDirect(boolean hypixelDirect) {
+            this.hypixelDirect = hypixelDirect;
+            return this;
+        }
+
+        public Builder mojangApi(String mojangApi) {
+            this.mojangApi = mojangApi;
+            return this;
+        }
+
+        public Builder hypixelApi(String hypixelApi) {
+            this.hypixelApi = hypixelApi;
+            return this;
+        }
+
+        public Builder mojangRate(double mojangRate) {
+            this.mojangRate = mojangRate;
+            return this;
+        }
+
+        public Builder hypixelRate(double hypixelRate) {
+            this.hypixelRate = hypixelRate;
+            return this;
+        }
+
+        public Builder mojangLinger(int mojangLinger) {
+            this.mojangLinger = mojangLinger;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder requestTimeout(int requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public Builder retries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        public Builder retryBackoff(int retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public Builder hedge(boolean hedge) {
+            this.hedge = hedge;
+            return this;
+        }
+
+        public Builder breakerFailures(int breakerFailures) {
+            this.breakerFailures = breakerFailures;
+            return this;
+        }
+
+        public Builder breakerCooldown(int breakerCooldown) {
+            this.breakerCooldown = breakerCooldown;
+            return this;
+        }
+
+        public Builder keepPaths(List<String> keepPaths) {
+            this.keepPaths = new ArrayList<>(keepPaths);
+            return this;
+        }
+
+        public Builder journal(File journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public Builder historyDir(File historyDir) {
+            this.historyDir = historyDir;
+            return this;
+        }
+
+        public Builder debug(boolean debug) {
+            this.debug = debug;
+            return this;
+        }
+
+        public Builder source(PlayerSource source) {
+            this.source = source;
+            return this;
+        }
+
+        public Builder fetcher(Fetcher fetcher) {
+            this.fetcher = fetcher;
+            return this;
+        }
+
+        public Builder scorer(Scorer scorer) {
+            this.scorer = scorer;
+            return this;
+        }
+
+        public Builder writer(Writer writer) {
+            this.writer = writer;
+            return this;
+        }
+
+        /*
+         * @return              The job
+         * @throws IllegalStateException    If there are no leaderboards or a setting is out of range.
+         *                                  A job without API keys can be built, for rescoring, but
+         *                                  the Hypixel fetcher will not fetch for it
+         * */
+        public LeaderboardJob build() {
+            if(definitions.isEmpty()) throw new IllegalStateException("A job needs at least one leaderboard");
+            if(maxInFlight < 1) throw new IllegalStateException("maxInFlight must be at least 1");
+            if(mojangRate <= 0 || hypixelRate <= 0) throw new IllegalStateException("Rates must be above 0");
+            if(requestTimeout < 1) throw new IllegalStateException("requestTimeout must be at least 1");
+            if(retries < 0 || retryBackoff < 0 || breakerFailures < 0 || breakerCooldown < 0){
+                throw new IllegalStateException("retries, retryBackoff, breakerFailures and breakerCooldown must not be negative");
+            }
+            if(source == null || scorer == null) throw new IllegalStateException("A job needs a player source and a scorer");
+            return new LeaderboardJob(this);
+        }
+    }
+}
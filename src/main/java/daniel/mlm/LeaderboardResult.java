@@ -0,0 +1,38 @@
+package daniel.mlm;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What a LeaderboardEngine made of a job: every leaderboard, the stats they were scored from so they
+ * can be saved or reused, and every player whose stats could not be fetched.
+ */
+public class LeaderboardResult {
+
+    public final LeaderboardJob job;
+
+    // Every username, each only once
+    public final List<String> players;
+
+    // Stat paths the stats are in the order of
+    public final String[] paths;
+
+    // Lowercase username - stats pairs, stats are null for players that could not be fetched
+    public final Map<String, double[]> stats;
+
+    // Username - reason pairs of every player that could not be fetched, in the order they failed
+    public final Map<String, String> failures;
+
+    // Each leaderboard sorted into leaderboard order, in the order of the job's definitions
+    public final List<Ranking> leaderboards;
+
+    public LeaderboardResult(LeaderboardJob job, List<String> players, String[] paths, Map<String, double[]> stats,
+                             Map<String, String> failures, List<Ranking> leaderboards) {
+        this.job = job;
+        this.players = players;
+        this.paths = paths;
+        this.stats = stats;
+        this.failures = failures;
+        this.leaderboards = leaderboards;
+    }
+}
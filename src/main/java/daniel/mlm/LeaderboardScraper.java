@@ -0,0 +1,264 @@
+package daniel.mlm;
+
+import org.apache.http.client.methods.HttpGet;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Reads usernames off Hypixel leaderboard webpages. A leaderboard longer than one page is followed
+ * through its page links: when the page navigation shows how the page number appears in the URL,
+ * every page needed is fetched at once, otherwise the next-page links are followed one by one.
+ */
+public class LeaderboardScraper {
+
+    // Page number in a pagination link, like .../page-3 or ...?page=3
+    private static final Pattern PAGE_NUMBER = Pattern.compile("^(.*[/?&]page[-=])(\\d+)(.*)$");
+
+    private final HttpClientPool http;
+
+    private final boolean debug;
+
+    public LeaderboardScraper(HttpClientPool http, boolean debug) {
+        this.http = http;
+        this.debug = debug;
+    }
+
+    /*
+     * Reads several leaderboards at the same time.
+     * @param counts            URL of the first page of each leaderboard - number of players to read
+     * @return                  URL - usernames in leaderboard order pairs, empty where a leaderboard
+     *                          could not be read
+     * */
+    public LinkedHashMap<String, ArrayList<String>> getBoards(Map<String, Integer> counts) {
+        LinkedHashMap<String, ArrayList<String>> boards = new LinkedHashMap<>();
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+            LinkedHashMap<String, Future<ArrayList<String>>> futures = new LinkedHashMap<>();
+            for(Map.Entry<String, Integer> count : counts.entrySet()){
+                futures.put(count.getKey(), executor.submit(() -> getPlayers(count.getKey(), count.getValue())));
+            }
+            for(Map.Entry<String, Future<ArrayList<String>>> future : futures.entrySet()){
+                ArrayList<String> board = join(future.getValue());
+                boards.put(future.getKey(), board == null ? new ArrayList<>() : board);
+            }
+        }
+        return boards;
+    }
+
+    /*
+     * @param definitions       Leaderboards to get the players of
+     * @param http              Client to read the pages with
+     * @param debug             Whether to show debug/progress messages
+     * @return                  Usernames of each leaderboard, merged from its URLs, in the order of
+     *                          the definitions. Every URL is only read once, for as many players as
+     *                          the largest playerCount using it.
+     * */
+    public static ArrayList<ArrayList<String>> scrape(List<LeaderboardDefinition> definitions, HttpClientPool http, boolean debug) {
+        Metrics.Timer timer = Metrics.time("scrape");
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        for(LeaderboardDefinition definition : definitions){
+            for(String url : definition.urls) counts.merge(url, definition.playerCount, Math::max);
+        }
+        LinkedHashMap<String, ArrayList<String>> boards = new LeaderboardScraper(http, debug).getBoards(counts);
+        ArrayList<ArrayList<String>> boardPlayers = new ArrayList<>();
+        for(LeaderboardDefinition definition : definitions){
+            ArrayList<ArrayList<String>> lists = new ArrayList<>();
+            for(String url : definition.urls) lists.add(boards.get(url));
+            boardPlayers.add(merge(lists, definition.playerCount));
+        }
+        timer.stop();
+        return boardPlayers;
+    }
+
+    /*
+     * @param boards            Usernames of each leaderboard in leaderboard order
+     * @param playerCount       Number of players to take from each leaderboard, starting from the top
+     * @return                  Usernames merged by rank: every board's first player, then every
+     *                          board's second and so on, each name only once
+     * */
+    public static ArrayList<String> merge(List<ArrayList<String>> boards, int playerCount) {
+        ArrayList<String> merged = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        for(int rank = 0; rank < playerCount; rank++){
+            for(ArrayList<String> board : boards){
+                if(rank < board.size() && seen.add(board.get(rank).toLowerCase(Locale.ROOT))){
+                    merged.add(board.get(rank));
+                }
+            }
+        }
+        return merged;
+    }
+
+    /*
+     * @param url               URL of the first page of a leaderboard
+     * @param playerCount       Number of players to read, starting from the top
+     * @return                  Usernames in leaderboard order, fewer if the leaderboard is shorter
+     * */
+    public ArrayList<String> getPlayers(String url, int playerCount) {
+        if(debug) System.out.println("Getting page " + url + ".");
+        Document first = getPage(url);
+        if(first == null) return new ArrayList<>();
+        ArrayList<String> players = readPlayers(first);
+        if(players.size() >= playerCount || players.isEmpty()) return trim(players, playerCount);
+        Matcher template = findPageTemplate(first);
+        if(template != null){
+            int lastPage = findLastPage(first);
+            int pagesNeeded = Math.min(lastPage, (playerCount + players.size() - 1) / players.size());
+            try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+                ArrayList<Future<Document>> pages = new ArrayList<>();
+                for(int page = 2; page <= pagesNeeded; page++){
+                    String pageUrl = template.group(1) + page + template.group(3);
+                    if(debug) System.out.println("Getting page " + pageUrl + ".");
+                    pages.add(executor.submit(() -> getPage(pageUrl)));
+                }
+                for(Future<Document> page : pages){
+                    Document doc = join(page);
+                    if(doc == null) break;
+                    players.addAll(readPlayers(doc));
+                }
+            }
+        }
+        else{
+            Document doc = first;
+            String next;
+            while(players.size() < playerCount && (next = findNextPage(doc)) != null){
+                if(debug) System.out.println("Getting page " + next + ".");
+                doc = getPage(next);
+                if(doc == null) break;
+                ArrayList<String> page = readPlayers(doc);
+                if(page.isEmpty()) break;
+                players.addAll(page);
+            }
+        }
+        if(players.size() < playerCount){
+            System.out.println("Only found " + players.size() + " players on " + url + ".");
+        }
+        return trim(players, playerCount);
+    }
+
+    /*
+     * @param url               URL of a Hypixel leaderboard webpage
+     * @return                  The webpage, or null if it could not be fetched
+     * */
+    public Document getPage(String url){
+        Metrics.Timer timer = Metrics.time("scrape.page");
+        try{
+            HttpGet request = new HttpGet(url);
+            request.addHeader("Referer", "http://www.google.com");
+            Metrics.count("scrape.requests");
+            return http.execute(request, response -> {
+                int status = response.getStatusLine().getStatusCode();
+                if(status != 200) throw new HttpStatusException("HTTP error fetching URL", status, url);
+                try(InputStream in = Metrics.counting(response.getEntity().getContent(), "scrape.bytes")){
+                    return Jsoup.parse(in, null, url);
+                }
+            });
+        } catch (IOException e) {
+            Metrics.count("scrape.failures");
+            System.out.println("Unable to access requested URL: " + url);
+            e.printStackTrace();
+            return null;
+        }finally{
+            timer.stop();
+        }
+    }
+
+    /*
+     * @param doc               The Document of the Hypixel leaderboard webpage being scraped
+     * @return                  List of usernames in the leaderboard table of the page
+     * */
+    public ArrayList<String> readPlayers(Document doc){
+        ArrayList<String> playerList = new ArrayList<>();
+        Elements tables = doc.getElementsByClass("leaderboard");
+        if(tables.isEmpty()) return playerList;
+        Elements players = tables.getFirst().getElementsByClass("player");
+        for(Element player : players){
+            if(debug) System.out.println(player);
+            Element link = player.selectFirst("a");
+            if(link == null) continue;
+            String name = link.text().replaceAll(" ", "");
+            if(name.isEmpty()){
+                System.out.println("No player found for table element: " + player);
+                continue;
+            }
+            playerList.add(name);
+        }
+        return playerList;
+    }
+
+    /*
+     * @return                  Links of the page navigation only, so links elsewhere on the page such
+     *                          as forum threads with page numbers of their own are never followed
+     * */
+    private static Elements pageLinks(Document doc) {
+        Elements links = doc.select(".pageNav a[href]");
+        if(!links.isEmpty()) return links;
+        Element next = doc.selectFirst("a[rel=next]");
+        if(next == null || next.parent() == null) return new Elements();
+        return next.parent().select("a[href]");
+    }
+
+    private static Matcher findPageTemplate(Document doc) {
+        for(Element link : pageLinks(doc)){
+            Matcher matcher = PAGE_NUMBER.matcher(link.absUrl("href"));
+            if(matcher.matches()) return matcher;
+        }
+        return null;
+    }
+
+    private static int findLastPage(Document doc) {
+        int last = 1;
+        for(Element link : pageLinks(doc)){
+            Matcher matcher = PAGE_NUMBER.matcher(link.absUrl("href"));
+            if(matcher.matches()){
+                try{
+                    last = Math.max(last, Integer.parseInt(matcher.group(2)));
+                }catch(NumberFormatException ignored){
+                    // Page numbers too long to be real
+                }
+            }
+        }
+        return last;
+    }
+
+    private static String findNextPage(Document doc) {
+        Element next = doc.selectFirst("a[rel=next], link[rel=next], a.pageNav-jump--next");
+        if(next == null) return null;
+        String url = next.absUrl("href");
+        return url.isEmpty() ? null : url;
+    }
+
+    private static ArrayList<String> trim(ArrayList<String> players, int playerCount) {
+        return players.size() <= playerCount ? players : new ArrayList<>(players.subList(0, playerCount));
+    }
+
+    private static <T> T join(Future<T> future) {
+        try{
+            return future.get();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }catch(ExecutionException e){
+            System.out.println("Failed to get leaderboard page.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
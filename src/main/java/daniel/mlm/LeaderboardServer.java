@@ -0,0 +1,158 @@
+package daniel.mlm;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/*
+ * Serves the latest leaderboards over HTTP while the machine keeps them up to date. Every leaderboard
+ * is written out as CSV and Json once when it is published, so answering a request is only a map
+ * lookup and copying bytes. Each body carries an ETag of its contents, and a request whose
+ * If-None-Match already has it gets an empty 304 instead.
+ *
+ * GET /                   Json list of the leaderboards and when they were last updated
+ * GET /<name>.csv         Leaderboard as rank,name,stat rows, the same as the output files
+ * GET /<name>.json        Leaderboard as a Json array of {rank, name, stat} objects
+ */
+public class LeaderboardServer implements Closeable {
+
+    private final HttpServer server;
+
+    // Path - rendered response pairs of everything last published, replaced as a whole
+    private volatile Map<String, Body> bodies = Collections.emptyMap();
+
+    /*
+     * @param port              Port to listen on, on every local address
+     * */
+    public LeaderboardServer(int port) throws IOException {
+        // Without this the JDK server waits on delayed ACKs between headers and body, about 40ms a response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /*
+     * Replaces every leaderboard being served.
+     * @param leaderboards      Name - ranking sorted into leaderboard order pairs
+     * */
+    public void publish(Map<String, Ranking> leaderboards) throws IOException {
+        String updated = Instant.now().toString();
+        LinkedHashMap<String, Body> rendered = new LinkedHashMap<>();
+        StringWriter index = new StringWriter();
+        try(JsonWriter json = new JsonWriter(index)){
+            json.beginArray();
+            for(Map.Entry<String, Ranking> leaderboard : leaderboards.entrySet()){
+                String name = leaderboard.getKey();
+                rendered.put("/" + name + ".csv", new Body("text/csv; charset=utf-8", csv(leaderboard.getValue())));
+                rendered.put("/" + name + ".json", new Body("application/json; charset=utf-8", json(leaderboard.getValue())));
+                json.beginObject();
+                json.name("name").value(name);
+                json.name("players").value(leaderboard.getValue().rows());
+                json.name("updated").value(updated);
+                json.name("csv").value("/" + name + ".csv");
+                json.name("json").value("/" + name + ".json");
+                json.endObject();
+            }
+            json.endArray();
+        }
+        rendered.put("/", new Body("application/json; charset=utf-8", index.toString().getBytes(StandardCharsets.UTF_8)));
+        bodies = rendered;
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try(exchange){
+            if(!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")){
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Body body = bodies.get(URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8));
+            if(body == null){
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", body.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if(match != null && (match.contains(body.etag) || match.trim().equals("*"))){
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", body.contentType);
+            if(exchange.getRequestMethod().equals("HEAD")){
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.bytes.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.bytes.length);
+            try(OutputStream out = exchange.getResponseBody()){
+                out.write(body.bytes);
+            }
+        }
+    }
+
+    private static byte[] csv(Ranking leaderboard) {
+        StringBuilder csv = new StringBuilder(leaderboard.rows() * 32);
+        for(int row = 0; row < leaderboard.rows(); row++){
+            csv.append(leaderboard.rank(row)).append(',')
+                    .append(leaderboard.name(row)).append(',')
+                    .append(leaderboard.score(row)).append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] json(Ranking leaderboard) throws IOException {
+        StringWriter out = new StringWriter(leaderboard.rows() * 48);
+        try(JsonWriter json = new JsonWriter(out)){
+            json.beginArray();
+            for(int row = 0; row < leaderboard.rows(); row++){
+                json.beginObject();
+                json.name("rank").value(leaderboard.rank(row));
+                json.name("name").value(leaderboard.name(row));
+                double score = leaderboard.score(row);
+                if(Double.isNaN(score) || Double.isInfinite(score)) json.name("stat").nullValue();
+                else json.name("stat").value(score);
+                json.endObject();
+            }
+            json.endArray();
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Body {
+
+        private final String contentType;
+
+        private final byte[] bytes;
+
+        // Strong ETag of the bytes, so a leaderboard that did not change keeps its ETag
+        private final String etag;
+
+        private Body(String contentType, byte[] bytes) {
+            this.contentType = contentType;
+            this.bytes = bytes;
+            this.etag = "\"" + DigestUtils.sha1Hex(bytes) + "\"";
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package daniel.mlm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writes leaderboards to a channel row by row. Every field is encoded straight into one reusable
+ * buffer that is handed to the channel whenever it fills, so no strings are built per row and a large
+ * leaderboard costs the same memory as a small one. Stats are written as the shortest decimal that
+ * reads back as the same double, which is what Double.toString gives for them too.
+ *
+ * CSV            rank,name,stat rows
+ * JSON_LINES     One {"rank":#,"name":"...","stat":#} object per line, stats that are not a number are null
+ * BINARY         Big-endian: int MAGIC, byte VERSION, int rows, then for each row int rank,
+ *                unsigned short name length, UTF-8 name bytes and double stat
+ */
+public class LeaderboardWriter implements Closeable {
+
+    public static final int MAGIC = 0x4d4c4d42;
+
+    public static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Largest scaled stat written by hand, any bigger could have more digits than a double holds
+    private static final long MAX_DIGITS = 1_000_000_000_000_000L;
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10};
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel channel;
+
+    private final Format format;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // Digits of a number, filled from the end
+    private final byte[] digits = new byte[20];
+
+    /*
+     * Output formats, with the file extension each is written under.
+     */
+    public enum Format {
+        CSV("csv"),
+        JSON_LINES("jsonl"),
+        BINARY("mlmb");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /*
+         * @param name              Name or extension of a format, in any case
+         * @return                  That format, null if there is none
+         * */
+        public static Format of(String name) {
+            for(Format format : values()){
+                if(format.name().equalsIgnoreCase(name) || format.extension.equalsIgnoreCase(name)) return format;
+            }
+            return name.equalsIgnoreCase("json") ? JSON_LINES : null;
+        }
+    }
+
+    /*
+     * @param fileName          Name of an output file
+     * @return                  The name without the extension of any output format
+     * */
+    public static String stripExtension(String fileName) {
+        for(Format format : Format.values()){
+            if(fileName.endsWith("." + format.extension)) return fileName.substring(0, fileName.length() - format.extension.length() - 1);
+        }
+        return fileName;
+    }
+
+    /*
+     * @param channel           Channel to write to, closed along with the writer
+     * @param format            Format to write rows in
+     * */
+    public LeaderboardWriter(WritableByteChannel channel, Format format) {
+        this.channel = channel;
+        this.format = format;
+    }
+
+    /*
+     * @param leaderboard       Ranking sorted into leaderboard order
+     * @param decimals          Number of decimals the stats were rounded to, stats are still written
+     *                          exactly if they were not
+     * */
+    public void write(Ranking leaderboard, int decimals) throws IOException {
+        start(leaderboard.rows());
+        for(int row = 0; row < leaderboard.rows(); row++){
+            writeRow(leaderboard.rank(row), leaderboard.name(row), leaderboard.score(row), decimals);
+        }
+    }
+
+    /*
+     * Starts a leaderboard written a row at a time with writeRow.
+     * @param rows              Number of rows that will be written
+     * */
+    public void start(int rows) throws IOException {
+        if(format == Format.BINARY){
+            reserve(9);
+            buffer.putInt(MAGIC).put((byte)VERSION).putInt(rows);
+        }
+    }
+
+    /*
+     * @param rank              Rank of the player
+     * @param name              Username of the player
+     * @param stat              Processed stat of the player
+     * @param decimals          Number of decimals the stat was rounded to
+     * */
+    public void writeRow(int rank, String name, double stat, int decimals) throws IOException {
+        switch(format){
+            case CSV -> {
+                writeLong(rank);
+                writeByte(',');
+                writeText(name, false);
+                writeByte(',');
+                writeDouble(stat, decimals);
+                writeByte('\n');
+            }
+            case JSON_LINES -> {
+                writeAscii("{\"rank\":");
+                writeLong(rank);
+                writeAscii(",\"name\":\"");
+                writeText(name, true);
+                writeAscii("\",\"stat\":");
+                if(Double.isNaN(stat) || Double.isInfinite(stat)) writeAscii("null");
+                else writeDouble(stat, decimals);
+                writeAscii("}\n");
+            }
+            case BINARY -> {
+                reserve(4 + 2);
+                buffer.putInt(rank).putShort((short)utf8Length(name));
+                writeText(name, false);
+                reserve(8);
+                buffer.putDouble(stat);
+            }
+        }
+    }
+
+    /*
+     * Hands everything buffered to the channel.
+     * */
+    public void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            flush();
+        }finally{
+            channel.close();
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) flush();
+    }
+
+    private void writeByte(int b) throws IOException {
+        reserve(1);
+        buffer.put((byte)b);
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for(int i = 0; i < text.length(); i++) writeByte(text.charAt(i));
+    }
+
+    private void writeLong(long value) throws IOException {
+        if(value == Long.MIN_VALUE){
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if(value < 0){
+            writeByte('-');
+            value = -value;
+        }
+        int start = digits.length;
+        do{
+            digits[--start] = (byte)('0' + value % 10);
+            value /= 10;
+        }while(value != 0);
+        reserve(digits.length - start);
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    /*
+     * Writes a stat the same as Double.toString would. A stat that is a whole number of
+     * 10^-decimals and not too big or small to be written in plain notation is written from its
+     * digits, everything else goes through Double.toString.
+     * */
+    private void writeDouble(double value, int decimals) throws IOException {
+        double abs = Math.abs(value);
+        if(decimals >= 0 && decimals < POWERS_OF_TEN.length && (abs == 0 || abs >= 1e-3 && abs < 1e7)){
+            double power = POWERS_OF_TEN[decimals];
+            double scaled = Math.rint(abs * power);
+            // Every decimal of up to 15 digits reads back as a different double, so if this one reads
+            // back as the stat no shorter decimal can, and these digits are the shortest
+            if(scaled < MAX_DIGITS && scaled / power == abs){
+                long units = (long)scaled;
+                int places = decimals;
+                while(places > 0 && units % 10 == 0){
+                    units /= 10;
+                    places--;
+                }
+                long unit = (long)POWERS_OF_TEN[places];
+                if(Math.copySign(1.0, value) < 0) writeByte('-');
+                writeLong(units / unit);
+                writeByte('.');
+                if(places == 0){
+                    writeByte('0');
+                    return;
+                }
+                long fraction = units % unit;
+                int start = digits.length;
+                for(int i = 0; i < places; i++){
+                    digits[--start] = (byte)('0' + fraction % 10);
+                    fraction /= 10;
+                }
+                reserve(places);
+                buffer.put(digits, start, places);
+                return;
+            }
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    /*
+     * Writes text as UTF-8, escaped for a Json string if asked.
+     * */
+    private void writeText(String text, boolean escape) throws IOException {
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c < 0x80){
+                if(escape && (c == '"' || c == '\\')){
+                    writeByte('\\');
+                    writeByte(c);
+                }
+                else if(escape && c < 0x20){
+                    reserve(6);
+                    buffer.put((byte)'\\').put((byte)'u').put((byte)'0').put((byte)'0')
+                            .put(HEX[c >> 4]).put(HEX[c & 0xf]);
+                }
+                else{
+                    writeByte(c);
+                }
+            }
+            else if(c < 0x800){
+                reserve(2);
+                buffer.put((byte)(0xc0 | c >> 6)).put((byte)(0x80 | c & 0x3f));
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                reserve(4);
+                buffer.put((byte)(0xf0 | codePoint >> 18)).put((byte)(0x80 | codePoint >> 12 & 0x3f))
+                        .put((byte)(0x80 | codePoint >> 6 & 0x3f)).put((byte)(0x80 | codePoint & 0x3f));
+            }
+            else{
+                // A lone surrogate is written as ?, the same as String.getBytes does
+                if(Character.isSurrogate(c)) c = '?';
+                reserve(3);
+                if(c == '?') buffer.put((byte)'?');
+                else buffer.put((byte)(0xe0 | c >> 12)).put((byte)(0x80 | c >> 6 & 0x3f)).put((byte)(0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c < 0x80) length++;
+            else if(c < 0x800) length += 2;
+            else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+                length += 4;
+                i++;
+            }
+            else if(Character.isSurrogate(c)) length++;
+            else length += 3;
+        }
+        return length;
+    }
+}
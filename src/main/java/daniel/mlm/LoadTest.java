@@ -0,0 +1,59 @@
+package daniel.mlm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Runs the whole machine against a MockApiServer started in the same process and reports how many
+ * players it got through per second, the peak heap used and the run's stage timings. Arguments are
+ * passed on to both the machine and the stand-in, so concurrency options like -maxInFlight can be
+ * tuned against latency options like -latency. The rate limits are set high by default so the
+ * stand-in's latency, not the limiters, sets the pace.
+ *
+ * java -cp mlm.jar daniel.mlm.LoadTest -playerCount=10000 -maxInFlight=64 -latency=80
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws IOException {
+        try(MockApiServer mock = new MockApiServer(0)){
+            if(!mock.configure(args)) return;
+            mock.start();
+            ArrayList<String> machineArgs = new ArrayList<>(List.of(
+                    "-apikey=" + UUID.randomUUID(),
+                    "-URL=" + mock.baseUrl() + "/leaderboard/bridge",
+                    "-playerCount=10000",
+                    "-hypixelApi=" + mock.baseUrl(),
+                    "-mojangApi=" + mock.baseUrl(),
+                    "-hypixelRate=1000",
+                    "-mojangRate=1000",
+                    "-uuidCacheTtl=0",
+                    "-fileName=mlm-loadtest"));
+            machineArgs.addAll(List.of(args));
+            for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+            long start = System.nanoTime();
+            MiniLeaderboardMachine.runMachine(machineArgs.toArray(new String[0]));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long peakHeap = 0;
+            for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+                if(pool.getType() == MemoryType.HEAP) peakHeap += pool.getPeakUsage().getUsed();
+            }
+            long players = Metrics.counter("players.fetched") + Metrics.counter("players.missing");
+            System.out.printf("%d players (%d missing) in %.1fs, %.1f players/s, peak heap %d MB%n",
+                    players, Metrics.counter("players.missing"), seconds, players / seconds, peakHeap / 1_048_576);
+            Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            Metrics.writeReport(out);
+            out.write(System.lineSeparator());
+            out.flush();
+            System.out.println("Leaderboards written next to " + new File(System.getProperty("user.dir"), "mlm-loadtest.csv"));
+        }
+    }
+}
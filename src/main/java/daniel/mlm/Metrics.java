@@ -0,0 +1,170 @@
+package daniel.mlm;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Timings and counts of everything the machine does, for telling where a slow run spent its time.
+ * Each stage has a Histogram of how long it took, and counters keep totals such as requests, retries
+ * and bytes received. Everything is recorded with lock-free adders so the workers never wait on each
+ * other, and every timing is also a StageEvent for flight recordings. The totals are written out as
+ * a Json run report.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // When the metrics started being recorded
+    private static final Instant started = Instant.now();
+
+    private static final long startedNanos = System.nanoTime();
+
+    private Metrics() {}
+
+    /*
+     * Starts timing a stage, stopped by calling stop, in a finally block if the stage can throw.
+     * @param stage             Name of the stage
+     * @return                  The running timer
+     * */
+    public static Timer time(String stage) {
+        return new Timer(stage);
+    }
+
+    /*
+     * @param stage             Name of the stage
+     * @return                  Histogram of the stage's durations, created the first time it is used
+     * */
+    public static Histogram histogram(String stage) {
+        return histograms.computeIfAbsent(stage, k -> new Histogram());
+    }
+
+    public static void count(String counter) {
+        count(counter, 1);
+    }
+
+    public static void count(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    /*
+     * @return                  Total of a counter, 0 if it was never counted
+     * */
+    public static long counter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /*
+     * @param in                Stream to count the bytes of
+     * @param counter           Counter the bytes read are added to
+     * @return                  Stream reading through to in
+     * */
+    public static InputStream counting(InputStream in, String counter) {
+        LongAdder bytes = counters.computeIfAbsent(counter, k -> new LongAdder());
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b >= 0) bytes.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if(read > 0) bytes.add(read);
+                return read;
+            }
+        };
+    }
+
+    /*
+     * Writes every stage's count, total, mean, p50, p99 and max in milliseconds, and every counter.
+     * @param out               Writer to write the Json report to
+     * */
+    public static void writeReport(Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("started").value(started.toString());
+        json.name("elapsedMillis").value(millis(System.nanoTime() - startedNanos));
+        json.name("stages").beginObject();
+        for(Map.Entry<String, Histogram> stage : new TreeMap<>(histograms).entrySet()){
+            Histogram histogram = stage.getValue();
+            long count = histogram.count();
+            json.name(stage.getKey()).beginObject();
+            json.name("count").value(count);
+            json.name("totalMillis").value(millis(histogram.sum()));
+            json.name("meanMillis").value(count == 0 ? 0 : millis(histogram.sum() / count));
+            json.name("p50Millis").value(millis(histogram.percentile(50)));
+            json.name("p99Millis").value(millis(histogram.percentile(99)));
+            json.name("maxMillis").value(millis(histogram.max()));
+            json.endObject();
+        }
+        json.endObject();
+        json.name("counters").beginObject();
+        for(Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()){
+            json.name(counter.getKey()).value(counter.getValue().sum());
+        }
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    /*
+     * @param file              File to write the Json report to, replacing it
+     * */
+    public static void writeReport(File file) throws IOException {
+        try(Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)){
+            writeReport(out);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    /*
+     * Time of one run of a stage, recorded when stopped.
+     */
+    public static class Timer {
+
+        private final Histogram histogram;
+
+        private final StageEvent event = new StageEvent();
+
+        private final long start;
+
+        private Timer(String stage) {
+            histogram = histogram(stage);
+            event.stage = stage;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        /*
+         * @return                  Nanoseconds since the timer started
+         * */
+        public long stop() {
+            long nanos = System.nanoTime() - start;
+            histogram.record(nanos);
+            event.commit();
+            return nanos;
+        }
+    }
+}
@@ -1,53 +1,100 @@
 package daniel.mlm;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.jsoup.HttpStatusException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 import java.io.*;
-import java.math.RoundingMode;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.DecimalFormat;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MiniLeaderboardMachine {
 
-    // Hypixel API key
-    private static String apikey = null;
+    // Hypixel API keys, players are shared out between them
+    private static ArrayList<String> apikeys = new ArrayList<>();
+
+    // Default URL of the leaderboard being scraped, bridge duels wins
+    private static final String DEFAULT_URL = "https://hypixel.net/duels/leaderboard/bridge";
 
-    // The URL of the Hypixel leaderboard webpage being scraped
-    private static String URL = "https://hypixel.net/duels/leaderboard/bridge";
+    // The URLs of the Hypixel leaderboard webpages being scraped
+    private static ArrayList<String> URLs = new ArrayList<>(List.of(DEFAULT_URL));
 
-    // Number of players from the leaderboard to check, starting from the top
+    // Number of players from each leaderboard to check, starting from the top
     private static int playerCount = 100;
 
     // Get stats directly from Hypixel
     private static boolean hypixelDirect = false;
 
-    // Integer of delay between Mojang API requests, in milliseconds, ignored if hypixelDirect is true
-    private static int mojangDelay = 2000;
+    // Base URL of the Mojang API, changed to test against a stand-in server
+    private static String mojangApi = "https://api.mojang.com";
 
-    // Integer of delay between Hypixel API requests, in milliseconds
-    private static int hypixelDelay = 2000;
+    // Base URL of the Hypixel API, changed to test against a stand-in server
+    private static String hypixelApi = "https://api.hypixel.net";
 
-    // String array of paths of stats to positively include
-    private static String[] posPaths = new String[]{"player~stats~Duels~bridge_duel_wins",
+    // Maximum Mojang API requests per second, ignored if hypixelDirect is true
+    private static double mojangRate = 0.5;
+
+    // Maximum Hypixel API requests per second
+    private static double hypixelRate = 0.5;
+
+    // Milliseconds to wait for more names before sending a Mojang bulk lookup that is not full
+    private static int mojangLinger = 100;
+
+    // Hours a UUID from Mojang is remembered between runs, 0 to not remember them
+    private static int uuidCacheTtl = 24;
+
+    // Maximum number of usernames remembered between runs
+    private static int uuidCacheSize = 100000;
+
+    // Minutes a Hypixel response is reused for instead of fetching the player again, 0 to not reuse them
+    private static int statsMaxAge = 0;
+
+    // Maximum megabytes of Hypixel responses kept on disk
+    private static int statsCacheSize = 512;
+
+    // Maximum number of requests waiting on a response at the same time, per API
+    private static int maxInFlight = 16;
+
+    // Milliseconds to wait for a connection to an API to be established
+    private static int connectTimeout = 10000;
+
+    // Milliseconds to wait between bytes of a response before giving up on it
+    private static int readTimeout = 30000;
+
+    // Maximum number of open connections to each host
+    private static int maxConnections = 16;
+
+    // Milliseconds an API request may take in total before it is aborted
+    private static int requestTimeout = 45000;
+
+    // Times a failed or timed out API request is sent again before giving up on the player
+    private static int retries = 3;
+
+    // Milliseconds of the most the first retry is delayed by, doubled for each retry after
+    private static int retryBackoff = 500;
+
+    // Whether to send a duplicate of an API request that is slower than 95% of answers
+    private static boolean hedge = false;
+
+    // Failed API requests in a row that pause the API, 0 to never pause it
+    private static int breakerFailures = 5;
+
+    // Milliseconds an API is paused for after failing repeatedly
+    private static int breakerCooldown = 10000;
+
+    // Default paths of stats to positively include, bridge overall wins
+    private static final String[] DEFAULT_POS_PATHS = new String[]{"player~stats~Duels~bridge_duel_wins",
             "player~stats~Duels~bridge_doubles_wins",
             "player~stats~Duels~bridge_threes_wins",
             "player~stats~Duels~bridge_four_wins",
@@ -55,52 +102,411 @@ public class MiniLeaderboardMachine {
             "player~stats~Duels~bridge_3v3v3v3_wins",
             "player~stats~Duels~capture_threes_wins"};
 
+    // String array of paths of stats to positively include
+    private static String[] posPaths = DEFAULT_POS_PATHS;
+
     // String array of paths of stats to negatively include
     private static String[] negPaths = new String[0];
 
     // Boolean of whether stats are totalled multiplicatively or additively
     private static boolean multiplicative = false;
 
+    // Formula combining the stats, replaces posPaths, negPaths and multiplicative when set
+    private static String formula = null;
+
+    // Variable name - stat path pairs usable in the formula
+    private static LinkedHashMap<String, String> variables = new LinkedHashMap<>();
+
     // Integer number of decimals to preserve in final processed stats
     private static int decimals = 1;
 
     // Boolean whether to order list from least to most
     private static boolean reverse = false;
 
+    // Number of rows to write, starting from the top, 0 for every player
+    private static int top = 0;
+
+    // Whether to carry on from the journal of an earlier run that did not finish
+    private static boolean resume = false;
+
     // Name of output file
     private static String fileName = null;
 
+    // Format the output file is written in
+    private static LeaderboardWriter.Format format = LeaderboardWriter.Format.CSV;
+
+    // Name of the Json file timings and counts of the run are written to, null to not write one
+    private static String report = null;
+
+    // Port to serve the leaderboards on instead of writing them to files, 0 to write files
+    private static int servePort = 0;
+
+    // Whether to add a snapshot of every leaderboard to its history after each run
+    private static boolean history = false;
+
+    // Player to print the history of instead of running, null to run
+    private static String historyOf = null;
+
+    // Number of runs to print the biggest movers over instead of running, 0 to run
+    private static int movers = 0;
+
+    // Players printed in each direction for -movers
+    private static final int MOVERS_SHOWN = 10;
+
+    // File of usernames to rank instead of the leaderboard pages, one per line, null to use the pages
+    private static String playersFile = null;
+
+    // Players of each leaderboard kept in memory before sorting them into a run file on disk
+    private static int sortBuffer = 100_000;
+
+    // File to save every fetched stat to for -rescore, null to not save them
+    private static String saveStats = null;
+
+    // File of saved stats to score the leaderboards from instead of fetching, null to fetch
+    private static String rescore = null;
+
+    // Whether to write the distribution of each leaderboard's scores next to it
+    private static boolean summary = true;
+
+    // Summary files to merge into one instead of running, null to run
+    private static String[] mergeSummaries = null;
+
+    // Ending of the file a leaderboard's summary is written to, after its name without extension
+    private static final String SUMMARY_EXTENSION = ".summary.json";
+
+    // Paths of stats to fetch and save on top of the ones the leaderboards use
+    private static String[] keepPaths = new String[0];
+
+    // Minutes between refreshes of the served leaderboards
+    private static int refreshInterval = 15;
+
+    // Minutes a served player's stats are kept before they are fetched again
+    private static int playerMaxAge = 60;
+
+    // File of leaderboards to create in one run, one per line, null to create the one on the command line
+    private static String config = null;
+
+    // Every leaderboard the run creates
+    private static ArrayList<LeaderboardDefinition> definitions;
+
     // Shows progress and debug messages
     private static boolean debug = false;
 
+    // File the UUID cache is kept in, next to the output files
+    private static final String UUID_CACHE_FILE = "mlm-uuid-cache.tsv";
+
+    // Directory the stats cache is kept in, next to the output files
+    private static final String STATS_CACHE_DIR = "mlm-stats-cache";
+
     public static void runMachine(String[] args) {
         if(!processArgs(args)){
             return;
         }
-        if(debug) System.out.println("Getting page.");
-        Document doc = getPage();
-        if(doc == null) return;
-        if(debug) System.out.println("Getting players.");
-        ArrayList<String> players = getPlayers(doc);
-        if(players.isEmpty()) return;
-        HashMap<String, JsonElement> statsList;
-        if(!hypixelDirect) {
-            if (debug) System.out.println("Getting uuid from mojang.");
-            HashMap<String, String> uuidList = getUUIDList(players);
-            if (debug) System.out.println("Getting stats from Hypixel.");
-            statsList = getStatsList(uuidList);
-        }else {
-            if (debug) System.out.println("Getting stats directly from Hypixel.");
-            statsList = getStatsListDirect(players);
-        }
-        if(debug) System.out.println("Creating leaderboard.");
-        HashMap<String, Double> leaderboard = createLeaderboard(statsList);
-        if(debug) System.out.println("Sorting leaderboard.");
-        ArrayList<String> sortedLeaderboard = sortLeaderboard(leaderboard);
-        if(debug) System.out.println("Checking file name.");
-        checkFileName();
-        if(debug) System.out.println("Writing to file.");
-        writeToFile(sortedLeaderboard);
+        if(historyOf != null || movers > 0){
+            printHistory();
+            return;
+        }
+        if(mergeSummaries != null){
+            mergeSummaryFiles();
+            return;
+        }
+        if(rescore != null){
+            rescoreLeaderboards();
+            writeReport();
+            return;
+        }
+        UuidCache uuidCache = null;
+        if(uuidCacheTtl > 0 && !hypixelDirect){
+            uuidCache = new UuidCache(new File(System.getProperty("user.dir"), UUID_CACHE_FILE),
+                    uuidCacheTtl * 3_600_000L, uuidCacheSize);
+        }
+        StatsCache statsCache = null;
+        if(statsMaxAge > 0){
+            try{
+                statsCache = new StatsCache(new File(System.getProperty("user.dir"), STATS_CACHE_DIR),
+                        statsMaxAge * 60_000L, statsCacheSize * 1_048_576L);
+            }catch(IOException e){
+                System.out.println("Unable to open stats cache, fetching every player.");
+                if(debug) e.printStackTrace();
+            }
+        }
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+            HttpClientPool http = new HttpClientPool(connectTimeout, readTimeout, maxConnections)){
+            LeaderboardEngine engine = new LeaderboardEngine(executor, http, uuidCache, statsCache);
+            LeaderboardJob job = buildJob();
+            if(playersFile != null){
+                if(servePort > 0) System.out.println("Leaderboards from a players file are not served, writing files instead.");
+                rankPlayersFile(engine, job);
+                writeReport();
+            }
+            else if(servePort > 0) serve(engine, job);
+            else{
+                createLeaderboardFiles(engine, job);
+                writeReport();
+            }
+        }finally{
+            if(uuidCache != null) uuidCache.close();
+            if(statsCache != null){
+                try{
+                    statsCache.close();
+                }catch(IOException e){
+                    System.out.println("Unable to save stats cache index.");
+                    if(debug) e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * @return                  Job of everything read from the arguments, journaled next to the
+     *                          output files
+     * */
+    private static LeaderboardJob buildJob() {
+        String journalName = config != null ? new File(config).getName().replaceAll("\\.[^.]*$", "") :
+                definitions.getFirst().fileName == null ? "mlm" : LeaderboardWriter.stripExtension(definitions.getFirst().fileName);
+        return LeaderboardJob.builder()
+                .definitions(definitions)
+                .apikeys(apikeys)
+                .hypixelDirect(hypixelDirect)
+                .mojangApi(mojangApi)
+                .hypixelApi(hypixelApi)
+                .mojangRate(mojangRate)
+                .hypixelRate(hypixelRate)
+                .mojangLinger(mojangLinger)
+                .maxInFlight(maxInFlight)
+                .requestTimeout(requestTimeout)
+                .retries(retries)
+                .retryBackoff(retryBackoff)
+                .hedge(hedge)
+                .breakerFailures(breakerFailures)
+                .breakerCooldown(breakerCooldown)
+                .keepPaths(Arrays.asList(keepPaths))
+                .journal(new File(System.getProperty("user.dir"), journalName + ".journal"))
+                .resume(resume)
+                .historyDir(history ? new File(System.getProperty("user.dir")) : null)
+                .debug(debug)
+                .build();
+    }
+
+    /*
+     * Runs every step from getting the leaderboard pages to writing the output files, then saves the
+     * stats if asked to.
+     * */
+    private static void createLeaderboardFiles(LeaderboardEngine engine, LeaderboardJob job) {
+        LeaderboardResult result;
+        try{
+            result = engine.submit(job.toBuilder().writer(fileWriter()).build()).join();
+        }catch(CompletionException e){
+            System.out.println("Unable to create leaderboards.");
+            if(debug) e.printStackTrace();
+            return;
+        }
+        if(result.players.isEmpty() || saveStats == null) return;
+        File file = new File(System.getProperty("user.dir"), saveStats);
+        Metrics.Timer timer = Metrics.time("saveStats");
+        try{
+            new StatMatrix(result.paths, result.players, result.stats).save(file);
+            System.out.println("Saved the stats of " + result.players.size() + " players to " + saveStats + ".");
+        }catch(IOException e){
+            System.out.println("Unable to save stats to " + saveStats + ".");
+            if(debug) e.printStackTrace();
+        }finally{
+            timer.stop();
+        }
+    }
+
+    /*
+     * @return                  Writer of each leaderboard to its output file, named after the time
+     *                          it was made if the definition has no fileName
+     * */
+    private static LeaderboardJob.Writer fileWriter() {
+        String time = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss").format(LocalDateTime.now());
+        return (i, definition, leaderboard) -> {
+            if(debug) System.out.println("Checking file name.");
+            String name = checkFileName(definition.fileName == null ?
+                    time + (definitions.size() > 1 ? "-" + (i + 1) : "") : definition.fileName, definition.format);
+            if(debug) System.out.println("Writing to file.");
+            Metrics.Timer timer = Metrics.time("write");
+            try{
+                writeToFile(out -> out.write(leaderboard, definition.decimals), name, definition);
+            }finally{
+                timer.stop();
+            }
+            if(summary) writeSummary(leaderboard.summary(), name);
+        };
+    }
+
+    /*
+     * Ranks the players listed in playersFile into the output files.
+     * */
+    private static void rankPlayersFile(LeaderboardEngine engine, LeaderboardJob job) {
+        File input = new File(playersFile);
+        if(!input.isFile()){
+            System.out.println("Players file " + playersFile + " does not exist, use -help to learn more.");
+            return;
+        }
+        String time = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss").format(LocalDateTime.now());
+        try{
+            engine.rankFile(job, input, sortBuffer, new File(System.getProperty("user.dir")), (i, definition, ranking) -> {
+                String name = checkFileName(definition.fileName == null ?
+                        time + (definitions.size() > 1 ? "-" + (i + 1) : "") : definition.fileName, definition.format);
+                Metrics.Timer timer = Metrics.time("write");
+                try{
+                    writeToFile(out -> ranking.write(out, definition.top, definition.decimals), name, definition);
+                }finally{
+                    timer.stop();
+                }
+                if(summary) writeSummary(ranking.summary(), name);
+            });
+        }catch(IOException e){
+            System.out.println("Unable to read players file " + playersFile + ".");
+            if(debug) e.printStackTrace();
+        }
+    }
+
+    /*
+     * Scores every leaderboard again from the stats saved by an earlier run into the output files.
+     * */
+    private static void rescoreLeaderboards() {
+        StatMatrix matrix;
+        try{
+            matrix = StatMatrix.load(new File(System.getProperty("user.dir"), rescore));
+        }catch(IOException e){
+            System.out.println("Unable to load saved stats from " + rescore + ".");
+            if(debug) e.printStackTrace();
+            return;
+        }
+        try{
+            LeaderboardEngine.rescore(buildJob().toBuilder().writer(fileWriter()).build(), matrix);
+        }catch(IllegalArgumentException e){
+            System.out.println(e.getMessage() + " in " + rescore + ", fetch it with -keepPaths to use it later.");
+        }catch(IOException e){
+            System.out.println("Unable to write leaderboards.");
+            if(debug) e.printStackTrace();
+        }
+    }
+
+    /*
+     * Keeps the leaderboards up to date and serves them until the process is stopped.
+     * */
+    private static void serve(LeaderboardEngine engine, LeaderboardJob job) {
+        LeaderboardServer server;
+        try{
+            server = new LeaderboardServer(servePort);
+        }catch(IOException e){
+            System.out.println("Unable to serve leaderboards on port " + servePort + ".");
+            if(debug) e.printStackTrace();
+            return;
+        }
+        System.out.println("Serving leaderboards on http://localhost:" + servePort + "/");
+        try(server){
+            engine.serve(job, refreshInterval * 60_000L, playerMaxAge * 60_000L, result -> {
+                LinkedHashMap<String, Ranking> named = new LinkedHashMap<>();
+                for(int i = 0; i < definitions.size(); i++) named.put(job.name(i), result.leaderboards.get(i));
+                try{
+                    server.publish(named);
+                }catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+                writeReport();
+            });
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Prints the history of historyOf, or the biggest movers over the last movers runs, for every
+     * leaderboard that has a history.
+     * */
+    private static void printHistory() {
+        LeaderboardJob job = buildJob().toBuilder().historyDir(new File(System.getProperty("user.dir"))).build();
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+        for(int i = 0; i < definitions.size(); i++){
+            File dir = LeaderboardEngine.historyDir(job, i);
+            if(!dir.isDirectory()){
+                System.out.println("No history of " + job.name(i) + ", run with -history=true first.");
+                continue;
+            }
+            try(SnapshotStore store = new SnapshotStore(dir)){
+                ArrayList<SnapshotStore.Entry> entries = historyOf != null ? store.history(historyOf) : store.movers(movers, MOVERS_SHOWN);
+                if(historyOf != null) System.out.println(job.name(i) + ": " + entries.size() + " of " + store.snapshots() + " runs with " + historyOf);
+                else if(store.snapshots() <= movers) System.out.println(job.name(i) + ": only " + store.snapshots() + " runs, not enough to look back " + movers);
+                else System.out.println(job.name(i) + ": biggest movers since " + format.format(Instant.ofEpochMilli(store.time(store.snapshots() - 1 - movers))));
+                for(SnapshotStore.Entry entry : entries){
+                    String change = !entry.seen ? "new" : (entry.rankChange > 0 ? "+" : "") + entry.rankChange + " (" +
+                            (entry.statChange >= 0 ? "+" : "") + Rounding.roundTo(entry.statChange, 10) + ")";
+                    System.out.println("  " + (historyOf != null ? format.format(Instant.ofEpochMilli(entry.time)) : entry.name) +
+                            "  #" + entry.rank + "  " + entry.stat + "  " + change);
+                }
+            }catch(IOException e){
+                System.out.println("Unable to read the history of " + job.name(i) + ".");
+                if(debug) e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * Writes the run report if one was asked for.
+     * */
+    private static void writeReport() {
+        if(report == null) return;
+        try{
+            Metrics.writeReport(new File(System.getProperty("user.dir"), report));
+        }catch(IOException e){
+            System.out.println("Unable to write run report " + report + ".");
+            if(debug) e.printStackTrace();
+        }
+    }
+
+    /*
+     * Writes the distribution of a leaderboard's scores next to its output file.
+     * @param scores            Summary of every score of the leaderboard
+     * @param fileName          Name of the leaderboard's output file
+     * */
+    private static void writeSummary(ScoreSummary scores, String fileName) {
+        String name = LeaderboardWriter.stripExtension(fileName) + SUMMARY_EXTENSION;
+        Metrics.Timer timer = Metrics.time("summary");
+        try{
+            scores.save(new File(System.getProperty("user.dir"), name));
+        }catch(IOException e){
+            System.out.println("Unable to write summary " + name + ".");
+            if(debug) e.printStackTrace();
+        }finally{
+            timer.stop();
+        }
+    }
+
+    /*
+     * Merges the summaries of separate runs or shards of a leaderboard into the summary of every
+     * score in them, written as the leaderboard's summary and printed.
+     * */
+    private static void mergeSummaryFiles() {
+        ScoreSummary merged = new ScoreSummary();
+        for(String fileName : mergeSummaries){
+            try{
+                merged.merge(ScoreSummary.load(new File(System.getProperty("user.dir"), fileName)));
+            }catch(IOException e){
+                System.out.println("Unable to read summary " + fileName + ".");
+                if(debug) e.printStackTrace();
+                return;
+            }
+        }
+        String name = checkFileName(buildJob().name(0), SUMMARY_EXTENSION);
+        try{
+            merged.save(new File(System.getProperty("user.dir"), name));
+        }catch(IOException e){
+            System.out.println("Unable to write summary " + name + ".");
+            if(debug) e.printStackTrace();
+            return;
+        }
+        System.out.println("Merged " + mergeSummaries.length + " summaries into " + name + ": " + merged.count() + " scores" +
+                (merged.missing() > 0 ? " and " + merged.missing() + " players without stats" : "") + ".");
+        if(merged.count() == 0) return;
+        System.out.println("Mean " + merged.mean() + ", standard deviation " + merged.stddev() + ", min " + merged.min() +
+                ", max " + merged.max() + ".");
+        System.out.println("p1 " + merged.percentile(1) + ", p10 " + merged.percentile(10) + ", p50 " + merged.percentile(50) +
+                ", p90 " + merged.percentile(90) + ", p99 " + merged.percentile(99) + ".");
     }
 
     /*
@@ -116,26 +522,124 @@ public class MiniLeaderboardMachine {
             }
         }
         if(!readArgs(args)) return false;
-        if(apikey == null){
+        // Nothing is fetched when scoring saved stats, reading history or merging summaries
+        if(apikeys.isEmpty() && rescore == null && historyOf == null && movers == 0 && mergeSummaries == null){
             System.out.println("Missing required argument: -apikey, use -help to learn more.");
             return false;
         }
+        definitions = new ArrayList<>();
+        if(config != null) return readConfig(args);
+        LeaderboardDefinition definition = createDefinition("");
+        if(definition == null) return false;
+        definitions.add(definition);
         return true;
     }
 
+    /*
+     * Reads a leaderboard from every line of the config file. Each line is read like the command
+     * line, starting from the command line's options.
+     * @param args               Arguments entered by the user
+     * @return                   Whether every line was read successfully
+     * */
+    private static boolean readConfig(String[] args) {
+        List<String> lines;
+        try{
+            lines = Files.readAllLines(new File(config).toPath(), StandardCharsets.UTF_8);
+        }catch(IOException e){
+            System.out.println("Unable to read config file " + config + ".");
+            if(debug) e.printStackTrace();
+            return false;
+        }
+        for(int i = 0; i < lines.size(); i++){
+            String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            resetLeaderboardArgs();
+            if(!readArgs(args) || !readArgs(splitLine(line))) return false;
+            LeaderboardDefinition definition = createDefinition(" on line " + (i + 1) + " of " + config);
+            if(definition == null) return false;
+            definitions.add(definition);
+        }
+        if(definitions.isEmpty()){
+            System.out.println("No leaderboards found in config file " + config + ".");
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * @param where              Where the options were read from, for error messages
+     * @return                   Leaderboard of the options read, null if they are not valid
+     * */
+    private static LeaderboardDefinition createDefinition(String where) {
+        try{
+            StatFormula statFormula = formula == null ?
+                    StatFormula.ofPaths(posPaths, negPaths, multiplicative) :
+                    StatFormula.parse(formula, variables);
+            return new LeaderboardDefinition(URLs, playerCount, statFormula, decimals, reverse, top, fileName, format);
+        }catch(IllegalArgumentException e){
+            System.out.println(e.getMessage() + where + "\nUse -help to learn more.");
+            return null;
+        }
+    }
+
+    /*
+     * Puts the options of a leaderboard back to their defaults before reading the next one.
+     * */
+    private static void resetLeaderboardArgs() {
+        URLs = new ArrayList<>(List.of(DEFAULT_URL));
+        playerCount = 100;
+        posPaths = DEFAULT_POS_PATHS;
+        negPaths = new String[0];
+        multiplicative = false;
+        formula = null;
+        variables = new LinkedHashMap<>();
+        decimals = 1;
+        reverse = false;
+        top = 0;
+        fileName = null;
+        format = LeaderboardWriter.Format.CSV;
+    }
+
+    /*
+     * @param line               Line of a config file
+     * @return                   Options on the line, split at spaces outside of double quotes
+     * */
+    private static String[] splitLine(String line) {
+        ArrayList<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            if(c == '"') quoted = !quoted;
+            else if(!quoted && Character.isWhitespace(c)){
+                if(!arg.isEmpty()) args.add(arg.toString());
+                arg.setLength(0);
+            }
+            else arg.append(c);
+        }
+        if(!arg.isEmpty()) args.add(arg.toString());
+        return args.toArray(new String[0]);
+    }
+
     /*
     * Reads args into usable format
     * @param args               Arguments entered by the user
     * @return                   Whether a valid api key was given
     * */
     private static boolean readArgs(String[] args) {
+        boolean defaultURLs = true;
         for(String arg : args){
             if(arg.startsWith("-apikey")){
                 if(arg.contains("=")){
-                    apikey = arg.substring(arg.indexOf("=") + 1);
-                    if(!UUID.fromString(apikey).toString().equalsIgnoreCase(apikey)){
-                        System.out.println("API key not valid, use -help to learn more.");
-                        return false;
+                    for(String apikey : arg.substring(arg.indexOf("=") + 1).split(",")){
+                        apikey = apikey.trim();
+                        try{
+                            if(!UUID.fromString(apikey).toString().equalsIgnoreCase(apikey)) throw new IllegalArgumentException();
+                        }catch(IllegalArgumentException e){
+                            System.out.println("API key not valid, use -help to learn more.");
+                            return false;
+                        }
+                        if(!apikeys.contains(apikey)) apikeys.add(apikey);
                     }
                 }
                 else{
@@ -151,20 +655,202 @@ public class MiniLeaderboardMachine {
                     System.out.println("Could not parse player count, use -help to learn more. Defaulting to: " + playerCount + ".");
                 }
             }
+            else if(arg.startsWith("-mojangRate")){
+                try{
+                    mojangRate = parseRate(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse Mojang rate, use -help to learn more. Defaulting to: " + mojangRate + ".");
+                }
+            }
+            else if(arg.startsWith("-hypixelRate")){
+                try{
+                    hypixelRate = parseRate(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse Hypixel rate, use -help to learn more. Defaulting to: " + hypixelRate + ".");
+                }
+            }
             else if(arg.startsWith("-mojangDelay")){
                 try{
-                    mojangDelay = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    mojangRate = 1000.0 / parseRate(arg.substring(arg.indexOf("=") + 1));
                 }
                 catch(Exception e){
-                    System.out.println("Could not parse Mojang delay, use -help to learn more. Defaulting to: " + mojangDelay + ".");
+                    System.out.println("Could not parse Mojang delay, use -help to learn more. Defaulting to: " + mojangRate + " per second.");
                 }
             }
             else if(arg.startsWith("-hypixelDelay")){
                 try{
-                    hypixelDelay = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    hypixelRate = 1000.0 / parseRate(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse Hypixel delay, use -help to learn more. Defaulting to: " + hypixelRate + " per second.");
+                }
+            }
+            else if(arg.startsWith("-mojangApi")){
+                if(arg.contains("=")){
+                    mojangApi = arg.substring(arg.indexOf("=") + 1).replaceAll("/+$", "");
+                }
+            }
+            else if(arg.startsWith("-hypixelApi")){
+                if(arg.contains("=")){
+                    hypixelApi = arg.substring(arg.indexOf("=") + 1).replaceAll("/+$", "");
+                }
+            }
+            else if(arg.startsWith("-mojangLinger")){
+                try{
+                    mojangLinger = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse Mojang linger, use -help to learn more. Defaulting to: " + mojangLinger + ".");
+                }
+            }
+            else if(arg.startsWith("-uuidCacheTtl")){
+                try{
+                    uuidCacheTtl = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse UUID cache TTL, use -help to learn more. Defaulting to: " + uuidCacheTtl + ".");
+                }
+            }
+            else if(arg.startsWith("-uuidCacheSize")){
+                try{
+                    uuidCacheSize = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(uuidCacheSize < 1){
+                        uuidCacheSize = 100000;
+                        System.out.println("Invalid UUID cache size, use -help to learn more. Defaulting to: " + uuidCacheSize + ".");
+                    }
                 }
                 catch(Exception e){
-                    System.out.println("Could not parse Hypixel delay, use -help to learn more. Defaulting to: " + hypixelDelay + ".");
+                    System.out.println("Could not parse UUID cache size, use -help to learn more. Defaulting to: " + uuidCacheSize + ".");
+                }
+            }
+            else if(arg.startsWith("-statsMaxAge")){
+                try{
+                    statsMaxAge = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse stats max age, use -help to learn more. Defaulting to: " + statsMaxAge + ".");
+                }
+            }
+            else if(arg.startsWith("-statsCacheSize")){
+                try{
+                    statsCacheSize = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(statsCacheSize < 1){
+                        statsCacheSize = 512;
+                        System.out.println("Invalid stats cache size, use -help to learn more. Defaulting to: " + statsCacheSize + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse stats cache size, use -help to learn more. Defaulting to: " + statsCacheSize + ".");
+                }
+            }
+            else if(arg.startsWith("-connectTimeout")){
+                try{
+                    connectTimeout = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse connect timeout, use -help to learn more. Defaulting to: " + connectTimeout + ".");
+                }
+            }
+            else if(arg.startsWith("-readTimeout")){
+                try{
+                    readTimeout = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse read timeout, use -help to learn more. Defaulting to: " + readTimeout + ".");
+                }
+            }
+            else if(arg.startsWith("-requestTimeout")){
+                try{
+                    requestTimeout = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(requestTimeout < 1){
+                        requestTimeout = 45000;
+                        System.out.println("Invalid request timeout, use -help to learn more. Defaulting to: " + requestTimeout + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse request timeout, use -help to learn more. Defaulting to: " + requestTimeout + ".");
+                }
+            }
+            else if(arg.startsWith("-retries")){
+                try{
+                    retries = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(retries < 0){
+                        retries = 3;
+                        System.out.println("Invalid retries, use -help to learn more. Defaulting to: " + retries + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse retries, use -help to learn more. Defaulting to: " + retries + ".");
+                }
+            }
+            else if(arg.startsWith("-retryBackoff")){
+                try{
+                    retryBackoff = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(retryBackoff < 0){
+                        retryBackoff = 500;
+                        System.out.println("Invalid retry backoff, use -help to learn more. Defaulting to: " + retryBackoff + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse retry backoff, use -help to learn more. Defaulting to: " + retryBackoff + ".");
+                }
+            }
+            else if(arg.startsWith("-hedge")){
+                try{
+                    hedge = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse hedge, use -help to learn more. Defaulting to: " + hedge + ".");
+                }
+            }
+            else if(arg.startsWith("-breakerFailures")){
+                try{
+                    breakerFailures = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(breakerFailures < 0){
+                        breakerFailures = 5;
+                        System.out.println("Invalid breaker failures, use -help to learn more. Defaulting to: " + breakerFailures + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse breaker failures, use -help to learn more. Defaulting to: " + breakerFailures + ".");
+                }
+            }
+            else if(arg.startsWith("-breakerCooldown")){
+                try{
+                    breakerCooldown = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(breakerCooldown < 0){
+                        breakerCooldown = 10000;
+                        System.out.println("Invalid breaker cooldown, use -help to learn more. Defaulting to: " + breakerCooldown + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse breaker cooldown, use -help to learn more. Defaulting to: " + breakerCooldown + ".");
+                }
+            }
+            else if(arg.startsWith("-maxConnections")){
+                try{
+                    maxConnections = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(maxConnections < 1){
+                        maxConnections = 16;
+                        System.out.println("Invalid max connections, use -help to learn more. Defaulting to: " + maxConnections + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse max connections, use -help to learn more. Defaulting to: " + maxConnections + ".");
+                }
+            }
+            else if(arg.startsWith("-maxInFlight")){
+                try{
+                    maxInFlight = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(maxInFlight < 1){
+                        maxInFlight = 16;
+                        System.out.println("Invalid max in flight, use -help to learn more. Defaulting to: " + maxInFlight + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse max in flight, use -help to learn more. Defaulting to: " + maxInFlight + ".");
                 }
             }
             else if(arg.startsWith("-posPaths")){
@@ -172,19 +858,19 @@ public class MiniLeaderboardMachine {
                     posPaths = arg.substring(arg.indexOf("=") + 1).replaceAll(" ", "").split("\\*");
                     if (posPaths.length == 0) {
                         System.out.println("Positive paths cannot be empty, use -help to learn more. Using default values.");
-                        posPaths = new String[]{"player~stats~Duels~bridge_duel_wins",
-                                "player~stats~Duels~bridge_doubles_wins",
-                                "player~stats~Duels~bridge_threes_wins",
-                                "player~stats~Duels~bridge_four_wins",
-                                "player~stats~Duels~bridge_2v2v2v2_wins",
-                                "player~stats~Duels~bridge_3v3v3v3_wins",
-                                "player~stats~Duels~capture_threes_wins"};
+                        posPaths = DEFAULT_POS_PATHS;
                     }
                 }
             }
             else if(arg.startsWith("-URL")){
                 if(arg.contains("=")){
-                    URL = arg.substring(arg.indexOf("=") + 1);
+                    if(defaultURLs){
+                        URLs.clear();
+                        defaultURLs = false;
+                    }
+                    for(String url : arg.substring(arg.indexOf("=") + 1).split(",")){
+                        if(!url.isBlank()) URLs.add(url.trim());
+                    }
                 }
             }
             else if(arg.startsWith("-negPaths")){
@@ -192,6 +878,23 @@ public class MiniLeaderboardMachine {
                     negPaths = arg.substring(arg.indexOf("=") + 1).replaceAll(" ", "").split(",");
                 }
             }
+            else if(arg.startsWith("-formula")){
+                if(arg.contains("=")){
+                    formula = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-vars")){
+                if(arg.contains("=")){
+                    for(String variable : arg.substring(arg.indexOf("=") + 1).replaceAll(" ", "").split("\\*")){
+                        int split = variable.indexOf(":");
+                        if(split <= 0){
+                            System.out.println("Could not parse variable " + variable + ", use -help to learn more.");
+                            return false;
+                        }
+                        variables.put(variable.substring(0, split), variable.substring(split + 1));
+                    }
+                }
+            }
             else if(arg.startsWith("-multiplicative")){
                 try{
                     multiplicative = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
@@ -220,6 +923,26 @@ public class MiniLeaderboardMachine {
                     System.out.println("Could not parse reverse, use -help to learn more. Defaulting to: " + reverse + ".");
                 }
             }
+            else if(arg.startsWith("-top")){
+                try{
+                    top = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(top < 0){
+                        top = 0;
+                        System.out.println("Invalid top, use -help to learn more. Defaulting to: " + top + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse top, use -help to learn more. Defaulting to: " + top + ".");
+                }
+            }
+            else if(arg.startsWith("-resume")){
+                try{
+                    resume = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse resume, use -help to learn more. Defaulting to: " + resume + ".");
+                }
+            }
             else if(arg.startsWith("-debug")){
                 try{
                     debug = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
@@ -241,10 +964,141 @@ public class MiniLeaderboardMachine {
                     fileName = arg.substring(arg.indexOf("=") + 1);
                 }
             }
+            else if(arg.startsWith("-format")){
+                LeaderboardWriter.Format parsed = LeaderboardWriter.Format.of(arg.substring(arg.indexOf("=") + 1));
+                if(parsed == null){
+                    System.out.println("Could not parse format, use -help to learn more. Defaulting to: " + format.extension + ".");
+                }
+                else{
+                    format = parsed;
+                }
+            }
+            else if(arg.startsWith("-serve")){
+                try{
+                    servePort = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(servePort < 0 || servePort > 65535){
+                        servePort = 0;
+                        System.out.println("Invalid port to serve on, use -help to learn more. Writing files instead.");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse port to serve on, use -help to learn more. Writing files instead.");
+                }
+            }
+            else if(arg.startsWith("-refreshInterval")){
+                try{
+                    refreshInterval = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(refreshInterval < 1){
+                        refreshInterval = 15;
+                        System.out.println("Invalid refresh interval, use -help to learn more. Defaulting to: " + refreshInterval + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse refresh interval, use -help to learn more. Defaulting to: " + refreshInterval + ".");
+                }
+            }
+            else if(arg.startsWith("-playerMaxAge")){
+                try{
+                    playerMaxAge = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse player max age, use -help to learn more. Defaulting to: " + playerMaxAge + ".");
+                }
+            }
+            else if(arg.startsWith("-historyOf")){
+                if(arg.contains("=")){
+                    historyOf = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-history")){
+                try{
+                    history = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse history, use -help to learn more. Defaulting to: " + history + ".");
+                }
+            }
+            else if(arg.startsWith("-movers")){
+                try{
+                    movers = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(movers < 1){
+                        movers = 0;
+                        System.out.println("Invalid number of runs for movers, use -help to learn more. Running instead.");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse number of runs for movers, use -help to learn more. Running instead.");
+                }
+            }
+            else if(arg.startsWith("-playersFile")){
+                if(arg.contains("=")){
+                    playersFile = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-sortBuffer")){
+                try{
+                    sortBuffer = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                    if(sortBuffer < 1000){
+                        sortBuffer = 100_000;
+                        System.out.println("Invalid sort buffer, use -help to learn more. Defaulting to: " + sortBuffer + ".");
+                    }
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse sort buffer, use -help to learn more. Defaulting to: " + sortBuffer + ".");
+                }
+            }
+            else if(arg.startsWith("-saveStats")){
+                if(arg.contains("=")){
+                    saveStats = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-rescore")){
+                if(arg.contains("=")){
+                    rescore = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-keepPaths")){
+                if(arg.contains("=")){
+                    keepPaths = arg.substring(arg.indexOf("=") + 1).replaceAll(" ", "").split("\\*");
+                }
+            }
+            else if(arg.startsWith("-summary")){
+                try{
+                    summary = Boolean.parseBoolean(arg.substring(arg.indexOf("=") + 1));
+                }
+                catch(Exception e){
+                    System.out.println("Could not parse summary, use -help to learn more. Defaulting to: " + summary + ".");
+                }
+            }
+            else if(arg.startsWith("-mergeSummaries")){
+                if(arg.contains("=")){
+                    mergeSummaries = arg.substring(arg.indexOf("=") + 1).split("\\*");
+                }
+            }
+            else if(arg.startsWith("-report")){
+                if(arg.contains("=")){
+                    report = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
+            else if(arg.startsWith("-config")){
+                if(arg.contains("=")){
+                    config = arg.substring(arg.indexOf("=") + 1);
+                }
+            }
         }
         return true;
     }
 
+    /*
+     * @param value             String of a positive number
+     * @return                  The parsed number
+     * */
+    private static double parseRate(String value) {
+        double rate = Double.parseDouble(value);
+        if(!(rate > 0) || Double.isInfinite(rate)) throw new NumberFormatException("Not a positive number: " + value);
+        return rate;
+    }
+
     /*
      * Prints the help message.
      * */
@@ -256,21 +1110,84 @@ public class MiniLeaderboardMachine {
                 Version: 1.0
                 
                 Usage: mlm.jar -apikey=<your Hypixel api key> [options]
+                    -apikey=ARG                     Your Hypixel API key. Several keys can be given separated by
+                                                    commas, each gets its own rate and players are shared out between
+                                                    them.
                     -help                           Prints this message.
                     -URL=ARG                        The full URL of the Hypixel leaderboard page of players whose stats
-                                                    you want to check.
+                                                    you want to check. Several leaderboards can be given separated by
+                                                    commas or with several -URL arguments, their players are merged
+                                                    by rank and each player is only checked once.
                                                         Defaults to bridge duels wins leaderboard.
-                    -playerCount=#                  The number of players from the leaderboard to check.
+                    -playerCount=#                  The number of players from each leaderboard to check. Leaderboards
+                                                    with more than one page are followed onto later pages.
                                                         Defaults to 100.
                     -hypixelDirect=true|false       Get stats directly from Hypixel using a deprecated endpoint instead
                                                     of getting UUID from Mojang first. This endpoint has a 5 minute
                                                     cooldown for checking the same username twice in a row.
                                                         Defaults to false.
-                    -hypixelDelay=#                 The delay between each query to the Hypixel API in milliseconds.
-                                                        Defaults to 2000, min 1000.
-                    -mojangDelay=#                  The delay between each query to the Mojang API in milliseconds.
+                    -hypixelRate=#                  The number of queries per second to the Hypixel API to start at,
+                                                    for each API key. The rate is then adjusted to the quota the API
+                                                    reports left.
+                                                        Defaults to 0.5, one query every 2 seconds.
+                    -mojangRate=#                   The maximum number of queries per second to the Mojang API. The
+                                                    rate is lowered whenever Mojang answers with too many requests.
+                                                    Ignored if hypixelDirect is true.
+                                                        Defaults to 0.5, one query every 2 seconds.
+                    -mojangLinger=#                 Milliseconds to wait for more usernames before sending a Mojang
+                                                    lookup with fewer than 10 names in it.
                                                     Ignored if hypixelDirect is true.
-                                                        Defaults to 2000, min 1000.
+                                                        Defaults to 100.
+                    -uuidCacheTtl=#                 Hours a UUID from Mojang is remembered in mlm-uuid-cache.tsv and
+                                                    reused by later runs. 0 turns the cache off.
+                                                        Defaults to 24.
+                    -uuidCacheSize=#                The maximum number of usernames remembered, least recently used
+                                                    ones are dropped first.
+                                                        Defaults to 100000.
+                    -statsMaxAge=#                  Minutes a player's Hypixel stats are kept in mlm-stats-cache and
+                                                    reused instead of checking the player again. 0 turns the cache
+                                                    off.
+                                                        Defaults to 0.
+                    -statsCacheSize=#               The maximum megabytes of stats kept, least recently used players
+                                                    are dropped first.
+                                                        Defaults to 512.
+                    -hypixelDelay=#                 Old way of setting the Hypixel rate, as the average delay between
+                                                    queries in milliseconds. Sets hypixelRate to 1000 / delay.
+                    -mojangDelay=#                  Old way of setting the Mojang rate, as the average delay between
+                                                    queries in milliseconds. Sets mojangRate to 1000 / delay.
+                    -hypixelApi=ARG                 Base URL of the Hypixel API, for testing against a stand-in such as
+                                                    MockApiServer.
+                                                        Defaults to https://api.hypixel.net
+                    -mojangApi=ARG                  Base URL of the Mojang API.
+                                                        Defaults to https://api.mojang.com
+                    -maxInFlight=#                  The maximum number of queries to each API, or with each Hypixel
+                                                    API key, that can be waiting on a response at the same time.
+                                                        Defaults to 16.
+                    -maxConnections=#               The maximum number of open connections kept to each host.
+                                                        Defaults to 16.
+                    -connectTimeout=#               Milliseconds to wait for a connection to be established.
+                                                        Defaults to 10000.
+                    -readTimeout=#                  Milliseconds to wait for more of a response before giving up.
+                                                        Defaults to 30000.
+                    -requestTimeout=#               Milliseconds an API request may take in total before it is
+                                                    aborted and tried again.
+                                                        Defaults to 45000.
+                    -retries=#                      Times a failed or timed out API request is tried again before
+                                                    giving up on the player. Players that could not be fetched are
+                                                    listed at the end of the run.
+                                                        Defaults to 3.
+                    -retryBackoff=#                 Milliseconds of the most the first retry is delayed by, a random
+                                                    delay that doubles with each retry after.
+                                                        Defaults to 500.
+                    -hedge=true|false               Send a duplicate of an API request that is taking longer than 95%
+                                                    of answers have and use whichever answers first. Each duplicate
+                                                    counts against the API's rate limit.
+                                                        Defaults to false.
+                    -breakerFailures=#              Failed API requests in a row after which the API is paused, 0 to
+                                                    never pause it.
+                                                        Defaults to 5.
+                    -breakerCooldown=#              Milliseconds an API is paused for before trying it again.
+                                                        Defaults to 10000.
                     -posPaths=ARG                   List of paths separated by * of stats that you would like to be
                                                     positively included in the leaderboard you wish to create. Elements
                                                     of each path should be separated by ~.
@@ -286,13 +1203,101 @@ public class MiniLeaderboardMachine {
                                                     If false, the stats from the positive paths will be added together,
                                                     then the stats from the negative paths will be subtracted.
                                                         Defaults to false.
+                    -formula=ARG                    Formula combining stats into the leaderboard stat, used instead of
+                                                    posPaths, negPaths and multiplicative. Supports numbers, + - * /,
+                                                    parentheses, min, max, abs, sqrt, log and pow. Stats are either
+                                                    variables from -vars or paths written straight in. Missing stats
+                                                    count as 0, use default(stat, #) to count them as # instead.
+                                                        Example: (wins_a + wins_b) / max(losses, 1)
+                    -vars=ARG                       List of name:path pairs separated by * naming stats for use in the
+                                                    formula.
+                                                        Example: wins_a:player~stats~Duels~bridge_duel_wins*losses:
+                                                        player~stats~Duels~bridge_duel_losses
                     -decimals=#                     The decimal precision of stats.
                                                         Defaults to 1, min 0, max 10.
                     -reversed                       If true, leaderboard will be ordered from least to most. If false,
                                                     leaderboard will be ordered from most to least.
                                                         Defaults to false.
+                    -top=#                          Only write this many players, starting from the top of the new
+                                                    leaderboard. 0 writes every player.
+                                                        Defaults to 0.
                     -fileName=ARG                   The name of the output file.
                                                         Defaults to date-time.csv
+                    -format=csv|jsonl|binary        The format of the output file. csv writes rank,name,stat rows,
+                                                    jsonl writes one {"rank","name","stat"} object per line, and
+                                                    binary writes the compact format described in LeaderboardWriter,
+                                                    to a .mlmb file.
+                                                        Defaults to csv.
+                    -resume=true|false              Carry on from where an earlier run with the same fileName and stats
+                                                    stopped, without checking its players again. Each run keeps a
+                                                    journal of the players it has checked in <fileName>.journal,
+                                                    <config>.journal with a config file, or mlm.journal without a
+                                                    fileName, until it finishes.
+                                                        Defaults to false.
+                    -config=ARG                     File of leaderboards to create in one run, one per line. Each line
+                                                    is written like the command line using the options -URL,
+                                                    -playerCount, -posPaths, -negPaths, -multiplicative, -formula,
+                                                    -vars, -decimals, -reversed, -top, -fileName and -format, with
+                                                    double quotes around values containing spaces. Options given on
+                                                    the command line apply to every line that does not set them.
+                                                    Each player is only checked once however many leaderboards they
+                                                    are on. Lines starting with # are ignored.
+                                                        Example line: -URL=<url> -formula="wins / max(losses, 1)"
+                                                        -vars=... -fileName=bridge-wlr
+                    -serve=#                        Keep running and serve the leaderboards over HTTP on this port
+                                                    instead of writing files. GET / lists the leaderboards, each one
+                                                    is at /<fileName>.csv and /<fileName>.json, or /leaderboard.csv
+                                                    without a fileName. Responses have an ETag for If-None-Match.
+                    -refreshInterval=#              Minutes between refreshes of the served leaderboards. Each refresh
+                                                    reads the leaderboard pages again and only fetches the players
+                                                    that are new or older than playerMaxAge.
+                                                        Defaults to 15.
+                    -playerMaxAge=#                 Minutes a served player's stats are kept before being fetched
+                                                    again.
+                                                        Defaults to 60.
+                    -summary=true|false             Write the distribution of every leaderboard's stats next to it, in
+                                                    <name>.summary.json where name is the output file's name without
+                                                    extension: count, mean, standard deviation, min, max, percentiles
+                                                    within 1% and a histogram, over every player even with -top.
+                                                        Defaults to true.
+                    -mergeSummaries=ARG             List of summary files separated by * to merge into one instead of
+                                                    running, such as those of separate runs or of shards of a players
+                                                    file. The merge is exact, the same as one summary of every stat,
+                                                    and is written to <name>.summary.json where name is the fileName
+                                                    without extension, or leaderboard without one.
+                                                        Example: -mergeSummaries=shard-1.summary.json*shard-2.summary.json
+                    -report=ARG                     Name of a Json file to write a report of the run to, with how long
+                                                    each stage took (p50, p99 and max in milliseconds), how long was
+                                                    spent waiting on each rate limiter, and counts of requests,
+                                                    throttles, failures and bytes received. When serving, the report
+                                                    is rewritten after every refresh. The same timings are recorded
+                                                    as daniel.mlm.Stage events for Java Flight Recorder.
+                    -playersFile=ARG                File of usernames to rank instead of the players on the leaderboard
+                                                    pages, one per line, with lines starting with # ignored. The file
+                                                    is read and fetched a chunk at a time and every leaderboard is
+                                                    sorted on disk, so any number of players can be ranked in the
+                                                    same memory. Each username should only be listed once.
+                    -sortBuffer=#                   Players of each leaderboard sorted in memory before being written
+                                                    to a temporary run file, when ranking a players file.
+                                                        Defaults to 100000, min 1000.
+                    -saveStats=ARG                  Save every fetched stat of every player to this file once they are
+                                                    fetched, so the leaderboards can be scored again with -rescore.
+                    -keepPaths=ARG                  List of paths separated by * of stats to fetch and save on top of
+                                                    the ones the leaderboards use, for formulas you want to try later.
+                    -rescore=ARG                    Score the leaderboards from a file saved with -saveStats instead of
+                                                    fetching any players. Every leaderboard ranks every player in the
+                                                    file, and formulas can only use the stats saved in it.
+                                                        Example: -rescore=bridge.stats -formula="wins / max(losses, 1)"
+                    -history=true|false             Add a snapshot of every leaderboard to its history after each run
+                                                    or refresh, kept in <name>.history where name is the fileName
+                                                    without extension, or leaderboard without one. Each snapshot
+                                                    stores every player's rank, stat, and change in both since the
+                                                    run before.
+                                                        Defaults to false.
+                    -historyOf=ARG                  Print this player's rank and stat in every run of each
+                                                    leaderboard's history instead of running.
+                    -movers=#                       Print the players who moved up and down the most over this many
+                                                    past runs of each leaderboard's history instead of running.
                     -debug=true|false               Whether to show debug/progress messages.
                                                         Defaults to false
                 
@@ -307,329 +1312,74 @@ public class MiniLeaderboardMachine {
 
 
     /*
-     * @return                  Hypixel leaderboard webpage being scraped
-     * */
-    private static Document getPage(){
-        try {
-            return Jsoup.connect(URL).userAgent("Mozilla").referrer("http://www.google.com").get();
-        } catch (IOException e) {
-            if(e instanceof HttpStatusException); //placeholder
-            System.out.println("Unable to access requested URL.");
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /*
-     * @param doc               The Document of the Hypixel leaderboard webpage being scraped
-     * @return                  List of usernames on the page
-     * */
-    private static ArrayList<String> getPlayers(Document doc){
-        ArrayList<String> playerList = new ArrayList<>();
-        Element lbTable = doc.getElementsByClass("leaderboard").getFirst();
-        Elements players = lbTable.getElementsByClass("player");
-        try {
-            for (int i = 0; i < playerCount && i < players.size(); i++) {
-                Element player = players.get(i);
-                if(debug) System.out.println(player);
-                Elements links = player.select("a");
-                if (links.isEmpty()) {
-                    playerCount++;
-                    continue;
-                }
-                try {
-                    playerList.add(links.first().text().replaceAll(" ", ""));
-                } catch (NullPointerException e) {
-                    playerCount++;
-                    System.out.println("No player found for table element: " + player);
-                    e.printStackTrace();
-                }
-            }
-        }
-        catch (Exception e){
-            System.out.println("Failed to finish processing player list after " + playerList.size() + " players.");
-        }
-        return playerList;
-    }
-
-    /*
-     * @param names             ArrayList of usernames
-     * @return                  Name - UUID pairs
+     * @param fileName          Name wanted for the output file
+     * @param format            Format the file will be written in
+     * @return                  That name ending in the format's extension, with dashes added until no
+     *                          file has it
      * */
-    private static HashMap<String, String> getUUIDList(ArrayList<String> names){
-        HashMap<String, String> UUIDList = new HashMap<>();
-        for(String name : names){
-            if(debug) System.out.println("Getting UUID for " + name + ".");
-            UUIDList.put(name, getUUID(name));
-            try {
-                Thread.sleep(mojangDelay);
-            } catch (InterruptedException e) {
-                System.out.println("Thread.sleep() fucked up somehow, idk.");
-                throw new RuntimeException(e);
-            }
-        }
-        return UUIDList;
+    private static String checkFileName(String fileName, LeaderboardWriter.Format format) {
+        return checkFileName(fileName, "." + format.extension);
     }
 
     /*
-     * @param name              The username of a player
-     * @return                  Player UUID according to Mojang
+     * @param fileName          Name wanted for a file
+     * @param extension         Ending the file's name must have, with the dot
+     * @return                  That name ending in the extension, with dashes added until no file has it
      * */
-    private static String getUUID(String name){
-        String api = "https://api.mojang.com/users/profiles/minecraft/" + name;
-        try {
-            URL url = new URL(api);
-            URLConnection request = url.openConnection();
-            request.connect();
-            JsonParser jp = new JsonParser();
-            JsonObject root = jp.parse((Reader)new InputStreamReader((InputStream)request.getContent())).getAsJsonObject();
-            return root.get("id").getAsString();
-        }
-        catch (Exception e) {
-            System.out.println("Failed to obtain UUID for username: " + name);
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /*
-     * @param UUIDList          HashMap of name - UUID pairs
-     * @return                  Name - raw stats pairs
-     * */
-    private static HashMap<String, JsonElement> getStatsList(HashMap<String, String> UUIDList) {
-        HashMap<String, JsonElement> statsList = new HashMap<>();
-        for(String name : UUIDList.keySet()){
-            if(debug) System.out.println("Getting stats for " + name + ".");
-            statsList.put(name, getStats(name, UUIDList.get(name)));
-            try {
-                Thread.sleep(hypixelDelay);
-            } catch (InterruptedException e) {
-                System.out.println("Thread.sleep() fucked up somehow, idk.");
-                e.printStackTrace();
-            }
-        }
-        return statsList;
-    }
-
-    /*
-     * @param UUID              The UUID of the player being checked
-     * @return                  Player raw stats according to Hypixel API
-     * */
-    private static JsonElement getStats(String name, String UUID) {
-        String baseUrl = "https://api.hypixel.net/v2/player";
-        try{
-            URIBuilder uriBuilder = new URIBuilder(baseUrl)
-                    .addParameter("uuid", UUID);
-            HttpClient client = HttpClients.createDefault();
-            HttpGet request = new HttpGet(uriBuilder.build());
-            request.addHeader("API-Key", apikey);
-            HttpResponse response = client.execute(request);
-            Reader reader = new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8);
-            JsonElement output = JsonParser.parseReader(reader);
-            if(!output.getAsJsonObject().get("success").getAsBoolean()){
-                System.out.println("Hypixel stat check failed for " + name + ".");
-                System.out.println("Reason: " + output.getAsJsonObject().get("cause").getAsString());
-            }
-            return output;
-        } catch (Exception e) {
-            System.out.println("Hypixel stat check failed for " + name + ".");
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /*
-     * @param players           ArrayList of usernames
-     * @return                  Name - raw stats pairs
-     * */
-    private static HashMap<String, JsonElement> getStatsListDirect(ArrayList<String> players) {
-        HashMap<String, JsonElement> statsList = new HashMap<>();
-        for(String name : players){
-            if(debug) System.out.println("Getting stats for " + name + ".");
-            statsList.put(name, getStatsDirect(name));
-            try {
-                Thread.sleep(hypixelDelay);
-            } catch (InterruptedException e) {
-                System.out.println("Thread.sleep() fucked up somehow, idk.");
-                e.printStackTrace();
-            }
-        }
-        return statsList;
-    }
-
-    /*
-     * @param name              Username of the player being checked
-     * @return                  Player raw stats according to Hypixel API
-     * */
-    private static JsonElement getStatsDirect(String name) {
-        HttpClient httpclient = HttpClients.createDefault();
-        HttpGet httpget = new HttpGet("https://api.hypixel.net/player?name=" + name + "&key=" + apikey);
-        HttpResponse httpresponse;
-        try {
-            httpresponse = httpclient.execute(httpget);
-            Reader reader = new InputStreamReader(httpresponse.getEntity().getContent(), StandardCharsets.UTF_8);
-            JsonElement output = JsonParser.parseReader(reader);
-            if(!output.getAsJsonObject().get("success").getAsBoolean()){
-                System.out.println("Hypixel stat check failed for " + name + ".");
-                System.out.println("Reason: " + output.getAsJsonObject().get("cause").getAsString());
-            }
-            return output;
-        } catch (IOException e) {
-            System.out.println("Hypixel stat check failed for " + name + ".");
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /*
-     * @param statsList         Hashmap of name - raw stats pairs
-     * @return                  Name - processed stat pairs
-     * */
-    private static HashMap<String, Double> createLeaderboard(HashMap<String, JsonElement> statsList) {
-        HashMap<String, Double> leaderboard = new HashMap<>();
-        for(String name : statsList.keySet()){
-            leaderboard.put(name, roundTo(processStats(name, statsList.get(name))));
-        }
-        return leaderboard;
-    }
-
-    /*
-     * @param playerStats       JsonElement of player raw stats
-     * @return                  Final processed stat of the player
-     * */
-    private static double processStats(String name, JsonElement playerStats) {
-        double finalStat = multiplicative ? 1.0 : 0.0;
-        for(int i = 0; i < posPaths.length; i++){
-            finalStat = multiplicative ?
-                    finalStat * findStat(name, playerStats, posPaths[i], 1.0) :
-                    finalStat + findStat(name, playerStats, posPaths[i], 0.0);
-        }
-        for(int i = 0; i < negPaths.length; i++){
-            finalStat = multiplicative ?
-                    finalStat / findStat(name, playerStats, posPaths[i], 1.0) :
-                    finalStat - findStat(name, playerStats, posPaths[i], 0.0);
-        }
-        return finalStat;
-    }
-
-    /*
-     * @param playerStats       JsonElement of player raw stats
-     * @param path              String of the path of the
-     * @param defaultValue      Default value in case stat at specified path doesn't exist or is invalid
-     * @return                  Stat specified by path
-     * */
-    private static double findStat(String name, JsonElement playerStats, String path, double defaultValue) {
-        String[] fullPath = path.split("~");
-        JsonElement stat = playerStats;
-        double output;
-        try {
-            for (String piece : fullPath) {
-                stat = stat.getAsJsonObject().get(piece);
-            }
-            if(stat.isJsonPrimitive() && stat.getAsJsonPrimitive().isNumber()){
-                output = stat.getAsNumber().doubleValue();
-            }
-            else{
-                output = defaultValue;
-                System.out.println("Stat at: " + path + "\nwas not a number for player " + name + ", defaulting to " + output + ".");
-            }
-        }
-        catch(Exception e){
-            output = defaultValue;
-            System.out.println("Stat at: " + path + "\nwas not found for player " + name + ", defaulting to " + output + ".");
-        }
-        return output;
-    }
-
-    /*
-     * @param num               Double number to round
-     * @return                  Rounded number
-     * */
-    private static double roundTo(double num){
-        if(decimals == 0){
-            return Math.round(num);
-        }
-        DecimalFormat df = new DecimalFormat("#." + "#".repeat(decimals));
-        df.setRoundingMode(RoundingMode.HALF_UP);
-        return Double.parseDouble(df.format(num));
-    }
-
-    /*
-     * Selection sort because I am a lazy fuck
-     * @param leaderboard       HashMap of name - processed stat pairs
-     * @return                  List of stats with numbering
-     * */
-    private static ArrayList<String> sortLeaderboard(HashMap<String, Double> leaderboard) {
-        ArrayList<String> sortedLeadereboard = new ArrayList<>();
-        int i = 1;
-        while(!leaderboard.isEmpty()){
-            String best = null;
-            for(String name : leaderboard.keySet()){
-                if(best == null || (reverse ^ leaderboard.get(name) > leaderboard.get(best))){
-                    best = name;
-                }
-            }
-            sortedLeadereboard.add(i + "," + best + "," + leaderboard.get(best));
-            leaderboard.remove(best);
-            i++;
-        }
-        return sortedLeadereboard;
-    }
-
-    /*
-     * Selection sort because I am a lazy fuck
-     * @param leaderboard       HashMap of name - processed stat pairs
-     * @return                  List of stats with numbering
-     * */
-    private static void checkFileName() {
-        if(fileName == null){
-            LocalDateTime time = LocalDateTime.now();
-            DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss");
-            fileName = timeFormatter.format(time) + ".csv";
-            return;
-        }
-        if(!fileName.endsWith(".csv")) fileName += ".csv";
+    private static String checkFileName(String fileName, String extension) {
+        if(!fileName.endsWith(extension)) fileName += extension;
         File output = new File(System.getProperty("user.dir"), fileName);
         while(output.exists() && !output.isDirectory()){
-            fileName = fileName.substring(0, fileName.lastIndexOf(".csv")) + "-.csv";
-            output = new File(fileName);
+            fileName = fileName.substring(0, fileName.lastIndexOf(extension)) + "-" + extension;
+            output = new File(System.getProperty("user.dir"), fileName);
         }
+        return fileName;
     }
 
     /*
-     * Selection sort because I am a lazy fuck
-     * @param leaderboard       HashMap of name - processed stat pairs
-     * @return                  List of stats with numbering
+     * Writes the leaderboard in the format of its definition, printing it as CSV instead if the file
+     * cannot be written.
+     * @param rows              Writes the rows of the leaderboard in leaderboard order
+     * @param fileName          Name of the output file
+     * @param definition        Definition the leaderboard was created from
      * */
-    private static void writeToFile(ArrayList<String> sortedLeaderboard) {
+    private static void writeToFile(Rows rows, String fileName, LeaderboardDefinition definition) {
         File output = new File(System.getProperty("user.dir"), fileName);
         if(debug) System.out.println(output.getAbsolutePath());
+        FileChannel channel;
         try {
-            output.createNewFile();
+            channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
         }
         catch (Exception e) {
             System.out.println("Unable to create output file to write to. Printing results instead.");
-            printResults(sortedLeaderboard);
+            printResults(rows);
             if(debug) e.printStackTrace();
             return;
         }
-        PrintWriter out = null;
-        try {
-            out = new PrintWriter(output);
+        try(LeaderboardWriter out = new LeaderboardWriter(channel, definition.format)){
+            rows.write(out);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.out.println("Unable to write to output file. Printing results instead.");
-            printResults(sortedLeaderboard);
+            printResults(rows);
             if(debug) e.printStackTrace();
-            return;
         }
-        for (String entry : sortedLeaderboard) {
-            out.println(entry);
+    }
+
+    private static void printResults(Rows rows) {
+        LeaderboardWriter out = new LeaderboardWriter(Channels.newChannel(System.out), LeaderboardWriter.Format.CSV);
+        try{
+            rows.write(out);
+            out.flush();
+        }
+        catch (IOException e) {
+            System.out.println("Unable to print results.");
+            if(debug) e.printStackTrace();
         }
-        out.close();
     }
 
-    private static void printResults(ArrayList<String> sortedLeaderboard) {
-        for(String entry : sortedLeaderboard) System.out.println(entry);
+    private interface Rows {
+        void write(LeaderboardWriter out) throws IOException;
     }
 }
@@ -0,0 +1,372 @@
+package daniel.mlm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Local stand-in for the Hypixel leaderboard pages, the Mojang bulk UUID lookup and the Hypixel player
+ * endpoints, for running the machine at full speed without using up a real API quota. Everything it
+ * serves is generated from the name or UUID asked for, so every run sees the same players and stats.
+ * Each API answer can be delayed, and a share of them can fail or be throttled on purpose. Hypixel
+ * answers carry RateLimit-Limit, RateLimit-Remaining and RateLimit-Reset headers counted per API key,
+ * and a key over its limit gets a 429 until its window resets.
+ *
+ * GET  /leaderboard/<board>/page-<n>   Leaderboard page of pageSize players, with page links
+ * POST /profiles/minecraft             Mojang bulk UUID lookup, with -mojangApi=http://host:port
+ * GET  /v2/player?uuid=<uuid>          Hypixel player by UUID, with -hypixelApi=http://host:port
+ * GET  /player?name=<name>&key=<key>   Deprecated Hypixel player by name
+ *
+ * Run on its own with java -cp mlm.jar daniel.mlm.MockApiServer [options], -help lists the options.
+ */
+public class MockApiServer implements Closeable {
+
+    private final HttpServer server;
+
+    // Players on each leaderboard
+    private int boardSize = 10_000;
+
+    // Players on each leaderboard page
+    private int pageSize = 100;
+
+    // Rough size in bytes of each player response
+    private int responseSize = 60_000;
+
+    // Milliseconds every API answer is delayed by, on average
+    private int latency = 50;
+
+    // Milliseconds the delay varies by either side of the average
+    private int jitter = 25;
+
+    // Hypixel requests allowed per key in each window
+    private int rateLimit = 300;
+
+    // Seconds in each rate limit window
+    private int window = 300;
+
+    // Share of API requests answered with a 500
+    private double failureRate = 0.0;
+
+    // Share of API requests answered with a 429 whatever the key's quota
+    private double throttleRate = 0.0;
+
+    // Key - requests in the current window pairs
+    private final ConcurrentHashMap<String, AtomicInteger> quotas = new ConcurrentHashMap<>();
+
+    private volatile long windowStart = System.currentTimeMillis();
+
+    /*
+     * @param port              Port to listen on, 0 for any free port
+     * */
+    public MockApiServer(int port) throws IOException {
+        // Without this the JDK server waits on delayed ACKs between headers and body, about 40ms a response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Platform threads, so the stand-in keeps answering even when it shares a process with a
+        // client whose virtual threads are pinned
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/leaderboard/", exchange -> handle(exchange, this::leaderboard));
+        server.createContext("/profiles/minecraft", exchange -> handle(exchange, this::profiles));
+        server.createContext("/v2/player", exchange -> handle(exchange, this::player));
+        server.createContext("/player", exchange -> handle(exchange, this::player));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 8484;
+        for(String arg : args){
+            if(arg.equalsIgnoreCase("-h") || arg.equalsIgnoreCase("-help")){
+                System.out.println("""
+                        Usage: java -cp mlm.jar daniel.mlm.MockApiServer [options]
+                            -port=#             Port to listen on. Defaults to 8484.
+                            -boardSize=#        Players on each leaderboard. Defaults to 10000.
+                            -pageSize=#         Players on each leaderboard page. Defaults to 100.
+                            -responseSize=#     Rough bytes in each player response. Defaults to 60000.
+                            -latency=#          Average milliseconds each API answer is delayed. Defaults to 50.
+                            -jitter=#           Milliseconds the delay varies by. Defaults to 25.
+                            -rateLimit=#        Hypixel requests per key in each window. Defaults to 300.
+                            -window=#           Seconds in each rate limit window. Defaults to 300.
+                            -failureRate=#      Share of API requests that fail with a 500. Defaults to 0.
+                            -throttleRate=#     Share of API requests throttled with a 429. Defaults to 0.
+                        """);
+                return;
+            }
+            if(arg.startsWith("-port=")) port = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+        }
+        MockApiServer mock = new MockApiServer(port);
+        if(!mock.configure(args)) return;
+        mock.start();
+        System.out.println("Mock APIs on " + mock.baseUrl() + ", leaderboards at " + mock.baseUrl() + "/leaderboard/<name>");
+        Thread.currentThread().join();
+    }
+
+    /*
+     * Reads the options of the stand-in from arguments, ignoring any it does not know.
+     * @param args              Arguments such as -latency=20
+     * @return                  Whether every option was valid
+     * */
+    public boolean configure(String[] args) {
+        for(String arg : args){
+            if(!arg.contains("=")) continue;
+            String value = arg.substring(arg.indexOf("=") + 1);
+            try{
+                if(arg.startsWith("-boardSize=")) boardSize = Integer.parseInt(value);
+                else if(arg.startsWith("-pageSize=")) pageSize = Math.max(1, Integer.parseInt(value));
+                else if(arg.startsWith("-responseSize=")) responseSize = Integer.parseInt(value);
+                else if(arg.startsWith("-latency=")) latency = Integer.parseInt(value);
+                else if(arg.startsWith("-jitter=")) jitter = Integer.parseInt(value);
+                else if(arg.startsWith("-rateLimit=")) rateLimit = Integer.parseInt(value);
+                else if(arg.startsWith("-window=")) window = Math.max(1, Integer.parseInt(value));
+                else if(arg.startsWith("-failureRate=")) failureRate = Double.parseDouble(value);
+                else if(arg.startsWith("-throttleRate=")) throttleRate = Double.parseDouble(value);
+            }catch(NumberFormatException e){
+                System.out.println("Could not parse " + arg + ".");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /*
+     * @return                  URL to use as the Mojang and Hypixel API base URLs
+     * */
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void leaderboard(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if(path.length < 3){
+            send(exchange, 404, "text/plain", "No leaderboard");
+            return;
+        }
+        String board = path[2];
+        int page = 1;
+        if(path.length > 3 && path[3].startsWith("page-")){
+            try{
+                page = Integer.parseInt(path[3].substring(5));
+            }catch(NumberFormatException e){
+                send(exchange, 404, "text/plain", "No page " + path[3]);
+                return;
+            }
+        }
+        int pages = Math.max(1, (boardSize + pageSize - 1) / pageSize);
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>").append(board)
+                .append(" leaderboard</title></head><body><table class=\"leaderboard\"><tbody>");
+        for(int rank = (page - 1) * pageSize + 1; rank <= Math.min(boardSize, page * pageSize); rank++){
+            String name = playerName(board, rank);
+            html.append("<tr><td class=\"position\">").append(rank).append("</td><td class=\"player\"><a href=\"/player/")
+                    .append(name).append("\">").append(name).append("</a></td><td class=\"stat\">")
+                    .append((boardSize - rank + 1) * 10).append("</td></tr>");
+        }
+        html.append("</tbody></table><div class=\"pageNav\">");
+        String base = "/leaderboard/" + board + "/page-";
+        if(page > 1) html.append("<a href=\"").append(base).append(page - 1).append("\">Prev</a>");
+        html.append("<a href=\"").append(base).append(1).append("\">1</a>");
+        if(pages > 1) html.append("<a href=\"").append(base).append(pages).append("\">").append(pages).append("</a>");
+        if(page < pages) html.append("<a rel=\"next\" href=\"").append(base).append(page + 1).append("\">Next</a>");
+        html.append("</div></body></html>");
+        send(exchange, 200, "text/html; charset=utf-8", html.toString());
+    }
+
+    private void profiles(HttpExchange exchange) throws IOException {
+        if(!exchange.getRequestMethod().equals("POST")){
+            send(exchange, 405, "text/plain", "POST only");
+            return;
+        }
+        if(misbehave(exchange)) return;
+        JsonElement names = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        JsonArray profiles = new JsonArray();
+        for(JsonElement name : names.getAsJsonArray()){
+            JsonObject profile = new JsonObject();
+            profile.addProperty("id", uuid(name.getAsString()));
+            profile.addProperty("name", name.getAsString());
+            profiles.add(profile);
+        }
+        send(exchange, 200, "application/json", profiles.toString());
+    }
+
+    private void player(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String key = exchange.getRequestHeaders().getFirst("API-Key");
+        String uuid = null;
+        String name = null;
+        if(query != null){
+            for(String pair : query.split("&")){
+                int split = pair.indexOf('=');
+                if(split < 0) continue;
+                String value = URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8);
+                switch(pair.substring(0, split)){
+                    case "uuid" -> uuid = value;
+                    case "name" -> name = value;
+                    case "key" -> key = value;
+                    default -> {}
+                }
+            }
+        }
+        if(key == null){
+            send(exchange, 403, "application/json", "{\"success\":false,\"cause\":\"Invalid API key\"}");
+            return;
+        }
+        if(!takeQuota(exchange, key) || misbehave(exchange)) return;
+        if(uuid == null && name != null) uuid = uuid(name);
+        if(uuid == null){
+            send(exchange, 400, "application/json", "{\"success\":false,\"cause\":\"Missing one or more fields [uuid]\"}");
+            return;
+        }
+        send(exchange, 200, "application/json", playerJson(uuid, name));
+    }
+
+    /*
+     * Counts a request against its key's quota and adds the rate limit headers.
+     * @return                  Whether the request is within the quota, a 429 has been sent if not
+     * */
+    private boolean takeQuota(HttpExchange exchange, String key) throws IOException {
+        long now = System.currentTimeMillis();
+        if(now - windowStart >= window * 1000L){
+            synchronized(quotas){
+                if(now - windowStart >= window * 1000L){
+                    quotas.clear();
+                    windowStart = now;
+                }
+            }
+        }
+        int used = quotas.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        long reset = Math.max(1, (windowStart + window * 1000L - now + 999) / 1000);
+        exchange.getResponseHeaders().set("RateLimit-Limit", Integer.toString(rateLimit));
+        exchange.getResponseHeaders().set("RateLimit-Remaining", Integer.toString(Math.max(0, rateLimit - used)));
+        exchange.getResponseHeaders().set("RateLimit-Reset", Long.toString(reset));
+        if(used > rateLimit){
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(reset));
+            send(exchange, 429, "application/json", "{\"success\":false,\"cause\":\"Key throttle\",\"throttle\":true}");
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Delays the answer, then fails or throttles it as often as configured.
+     * @return                  Whether an error has been sent instead of the answer
+     * */
+    private boolean misbehave(HttpExchange exchange) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int delay = latency + (jitter > 0 ? random.nextInt(-jitter, jitter + 1) : 0);
+        if(delay > 0){
+            try{
+                Thread.sleep(delay);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        double roll = random.nextDouble();
+        if(roll < failureRate){
+            send(exchange, 500, "application/json", "{\"success\":false,\"cause\":\"Internal error\"}");
+            return true;
+        }
+        if(roll < failureRate + throttleRate){
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 429, "application/json", "{\"success\":false,\"cause\":\"Too many requests\"}");
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Generates a player response with stats under player~stats~Duels like the real ones, padded out
+     * with other games' stats to about responseSize bytes.
+     * */
+    private String playerJson(String uuid, String name) throws IOException {
+        Random random = new Random(uuid.hashCode());
+        StringWriter out = new StringWriter(responseSize + 1024);
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("success").value(true);
+        json.name("player").beginObject();
+        json.name("uuid").value(uuid);
+        json.name("displayname").value(name == null ? "Player_" + uuid.substring(0, Math.min(8, uuid.length())) : name);
+        json.name("networkExp").value(random.nextInt(100_000_000));
+        json.name("stats").beginObject();
+        json.name("Duels").beginObject();
+        for(String mode : new String[]{"bridge_duel", "bridge_doubles", "bridge_threes", "bridge_four",
+                "bridge_2v2v2v2", "bridge_3v3v3v3", "capture_threes"}){
+            for(String stat : new String[]{"wins", "losses", "kills", "deaths", "goals", "blocks_placed"}){
+                json.name(mode + "_" + stat).value(random.nextInt(20_000));
+            }
+        }
+        json.endObject();
+        for(int game = 0; out.getBuffer().length() < responseSize; game++){
+            json.name("Game" + game).beginObject();
+            for(int stat = 0; stat < 100; stat++) json.name("stat_" + stat).value(random.nextInt(1_000_000));
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+        json.endObject();
+        json.flush();
+        return out.toString();
+    }
+
+    private static String playerName(String board, int rank) {
+        // Every board shares its top players with the others so merged boards overlap
+        return rank <= 100 ? "Player" + rank : board + "_" + rank;
+    }
+
+    private static String uuid(String name) {
+        return UUID.nameUUIDFromBytes(name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(bytes);
+        }
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try(exchange){
+            try{
+                handler.handle(exchange);
+            }catch(IOException | RuntimeException e){
+                System.out.println("Mock request failed: " + exchange.getRequestURI());
+                e.printStackTrace();
+                exchange.sendResponseHeaders(500, -1);
+            }
+        }catch(IOException ignored){
+            // The response had already started, closing the exchange is all that is left
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
@@ -0,0 +1,405 @@
+package daniel.mlm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/*
+ * Chain of stages connected by bounded queues. Every stage runs its own workers on virtual threads,
+ * so a player moves on to the next stage as soon as it is done with the current one instead of
+ * waiting for the rest of the list. A full queue blocks the stage feeding it, which keeps a fast
+ * stage from running too far ahead of a slow one.
+ */
+public class Pipeline {
+
+    // Marks the end of the players in a queue
+    private static final Player END = new Player(null);
+
+    // Capacity of each queue between two stages
+    private final int capacity;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Queue the next stage reads from
+    private BlockingQueue<Player> tail;
+
+    /*
+     * @param capacity          Maximum number of players waiting between two stages
+     * */
+    public Pipeline(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /*
+     * Starts the first stage, which puts every username into the pipeline.
+     * @param names             Usernames in leaderboard order
+     * @return                  This pipeline
+     * */
+    public Pipeline source(Iterable<String> names) {
+        BlockingQueue<Player> out = new ArrayBlockingQueue<>(capacity);
+        executor.submit(() -> {
+            try{
+                for(String name : names) out.put(new Player(name));
+            }finally{
+                out.put(END);
+            }
+            return null;
+        });
+        tail = out;
+        return this;
+    }
+
+    /*
+     * Starts a stage that takes players from the previous stage and passes them on to the next.
+     * @param name              Name of the stage, used in error messages
+     * @param workers           Number of players the stage works on at the same time
+     * @param limiter           Rate limiter each worker waits on before working on a player, or null
+     * @param work              Work to do on a player, returning false to drop the player. A player
+     *                          it throws on is passed on with the failure recorded
+     * @return                  This pipeline
+     * */
+    public Pipeline stage(String name, int workers, RateLimiter limiter, Predicate<Player> work) {
+        return stage(name, workers, limiter, player -> false, work);
+    }
+
+    /*
+     * Starts a stage that takes players from the previous stage and passes them on to the next.
+     * @param name              Name of the stage, used in error messages
+     * @param workers           Number of players the stage works on at the same time
+     * @param limiter           Rate limiter each worker waits on before working on a player, or null
+     * @param skip              Players that are passed straight on without waiting on the limiter
+     * @param work              Work to do on a player, returning false to drop the player. A player
+     *                          it throws on is passed on with the failure recorded
+     * @return                  This pipeline
+     * */
+    public Pipeline stage(String name, int workers, RateLimiter limiter, Predicate<Player> skip, Predicate<Player> work) {
+        BlockingQueue<Player> in = tail;
+        BlockingQueue<Player> out = new ArrayBlockingQueue<>(capacity);
+        AtomicInteger running = new AtomicInteger(workers);
+        for(int i = 0; i < workers; i++){
+            executor.submit(() -> {
+                try{
+                    Player player;
+                    while((player = in.take()) != END){
+                        if(skip.test(player)){
+                            out.put(player);
+                            continue;
+                        }
+                        if(limiter != null) limiter.acquire();
+                        boolean keep;
+                        try{
+                            keep = work.test(player);
+                        }catch(RuntimeException e){
+                            // Passed on so it is still reported, or ranked without stats
+                            System.out.println(name + " failed for " + player + ".");
+                            e.printStackTrace();
+                            player.failure = name + " failed: " + e;
+                            keep = true;
+                        }
+                        if(keep) out.put(player);
+                    }
+                    // Let the other workers of this stage see the end too
+                    in.put(END);
+                }finally{
+                    if(running.decrementAndGet() == 0) out.put(END);
+                }
+                return null;
+            });
+        }
+        tail = out;
+        return this;
+    }
+
+    /*
+     * Starts a stage that works on players in groups. A worker waits for one player, then collects
+     * more until the group is full or the linger time has passed since the first, so a slow trickle
+     * of players is not held back waiting for a full group.
+     * @param name              Name of the stage, used in error messages
+     * @param workers           Number of groups the stage works on at the same time
+     * @param batchSize         Maximum number of players in a group
+     * @param lingerMillis      Maximum milliseconds to wait for a group to fill up
+     * @param limiter           Rate limiter each worker waits on before working on a group, or null
+     * @param skip              Players that are passed straight on without joining a group
+     * @param work              Work to do on a group, every player of the group is passed on after it
+     * @return                  This pipeline
+     * */
+    public Pipeline batchStage(String name, int workers, int batchSize, long lingerMillis, RateLimiter limiter, Predicate<Player> skip, Consumer<List<Player>> work) {
+        BlockingQueue<Player> in = tail;
+        BlockingQueue<Player> out = new ArrayBlockingQueue<>(capacity);
+        AtomicInteger running = new AtomicInteger(workers);
+        for(int i = 0; i < workers; i++){
+            executor.submit(() -> {
+                try{
+                    boolean ended = false;
+                    while(!ended){
+                        ArrayList<Player> batch = new ArrayList<>(batchSize);
+                        Player player = in.take();
+                        long deadline = System.nanoTime() + lingerMillis * 1_000_000L;
+                        while(player != END){
+                            if(skip.test(player)) out.put(player);
+                            else batch.add(player);
+                            if(batch.size() >= batchSize) break;
+                            player = in.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                            if(player == null) break;
+                        }
+                        if(player == END){
+                            ended = true;
+                            // Let the other workers of this stage see the end too
+                            in.put(END);
+                        }
+                        if(batch.isEmpty()) continue;
+                        if(limiter != null) limiter.acquire();
+                        try{
+                            work.accept(batch);
+                        }catch(RuntimeException e){
+                            System.out.println(name + " failed for " + batch + ".");
+                            e.printStackTrace();
+                            for(Player failed : batch) failed.failure = name + " failed: " + e;
+                        }
+                        for(Player done : batch) out.put(done);
+                    }
+                }finally{
+                    if(running.decrementAndGet() == 0) out.put(END);
+                }
+                return null;
+            });
+        }
+        tail = out;
+        return this;
+    }
+
+    /*
+     * Starts a stage split into shards, each with its own workers and its own deque of players, such
+     * as one shard per API key. Incoming players go to the shard with the shortest deque, and a worker
+     * whose own deque is empty steals from the back of the longest other one, so a slow shard's players
+     * are picked up by the others. A player can be put back for any shard to take, and a shard can be
+     * retired, after which the other shards take over its players. If every shard is retired the
+     * remaining players are passed on without being worked on. Idle workers, and the dispatcher while
+     * the shards are full, wait on a lock shared by the deques instead of polling them.
+     * @param name              Name of the stage, used in error messages
+     * @param shards            Number of shards
+     * @param workersPerShard   Number of players each shard works on at the same time
+     * @param skip              Players that are passed straight on without joining a shard
+     * @param work              Work to do on a player with a given shard
+     * @return                  This pipeline
+     * */
+    public Pipeline shardedStage(String name, int shards, int workersPerShard, Predicate<Player> skip, ShardWork work) {
+        BlockingQueue<Player> in = tail;
+        BlockingQueue<Player> out = new ArrayBlockingQueue<>(capacity);
+        // Guards the deques and everything below, signalling hasWork when a player is added or a worker
+        // may have to stop, and hasRoom when the shards take a player or lose a shard
+        ReentrantLock lock = new ReentrantLock();
+        Condition hasWork = lock.newCondition();
+        Condition hasRoom = lock.newCondition();
+        ArrayList<ArrayDeque<Player>> deques = new ArrayList<>();
+        boolean[] alive = new boolean[shards];
+        for(int i = 0; i < shards; i++){
+            deques.add(new ArrayDeque<>());
+            alive[i] = true;
+        }
+        // Players handed to the shards and not yet passed on or dropped
+        AtomicInteger pending = new AtomicInteger();
+        AtomicBoolean inputDone = new AtomicBoolean(false);
+        // Dispatcher and workers still running, the last one to stop ends the stage
+        AtomicInteger running = new AtomicInteger(shards * workersPerShard + 1);
+        Runnable finish = () -> {
+            ArrayList<Player> left = new ArrayList<>();
+            lock.lock();
+            try{
+                for(ArrayDeque<Player> deque : deques){
+                    left.addAll(deque);
+                    deque.clear();
+                }
+            }finally{
+                lock.unlock();
+            }
+            try{
+                for(Player player : left){
+                    System.out.println(name + " had no shard left for " + player + ".");
+                    out.put(player);
+                }
+                out.put(END);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.submit(() -> {
+            try{
+                Player player;
+                while((player = in.take()) != END){
+                    if(skip.test(player)){
+                        out.put(player);
+                        continue;
+                    }
+                    int shard;
+                    lock.lock();
+                    try{
+                        // Hold back while the shards already have plenty to do
+                        while(queued(deques) >= capacity && shortestLiveDeque(deques, alive) >= 0) hasRoom.await();
+                        shard = shortestLiveDeque(deques, alive);
+                        if(shard >= 0){
+                            pending.incrementAndGet();
+                            deques.get(shard).addLast(player);
+                            hasWork.signalAll();
+                        }
+                    }finally{
+                        lock.unlock();
+                    }
+                    if(shard < 0){
+                        System.out.println(name + " had no shard left for " + player + ".");
+                        out.put(player);
+                    }
+                }
+            }finally{
+                lock.lock();
+                try{
+                    inputDone.set(true);
+                    hasWork.signalAll();
+                }finally{
+                    lock.unlock();
+                }
+                if(running.decrementAndGet() == 0) finish.run();
+            }
+            return null;
+        });
+        for(int s = 0; s < shards; s++){
+            int shard = s;
+            for(int i = 0; i < workersPerShard; i++){
+                executor.submit(() -> {
+                    try{
+                        while(true){
+                            Player player = null;
+                            lock.lock();
+                            try{
+                                while(alive[shard]){
+                                    player = deques.get(shard).pollFirst();
+                                    if(player == null) player = steal(deques, shard);
+                                    if(player != null || (inputDone.get() && pending.get() == 0)) break;
+                                    hasWork.await();
+                                }
+                                if(player != null) hasRoom.signal();
+                            }finally{
+                                lock.unlock();
+                            }
+                            if(player == null) break;
+                            Outcome outcome;
+                            try{
+                                outcome = work.work(shard, player);
+                            }catch(RuntimeException e){
+                                System.out.println(name + " failed for " + player + ".");
+                                e.printStackTrace();
+                                player.failure = name + " failed: " + e;
+                                outcome = Outcome.DONE;
+                            }
+                            if(outcome == Outcome.RETRY || outcome == Outcome.RETIRE){
+                                int other;
+                                lock.lock();
+                                try{
+                                    if(outcome == Outcome.RETIRE){
+                                        alive[shard] = false;
+                                        // The shard's other workers stop, and the dispatcher may have no shard left to wait for
+                                        hasWork.signalAll();
+                                        hasRoom.signalAll();
+                                    }
+                                    other = shortestLiveDeque(deques, alive);
+                                    if(other >= 0){
+                                        deques.get(other).addLast(player);
+                                        hasWork.signalAll();
+                                    }
+                                }finally{
+                                    lock.unlock();
+                                }
+                                if(other >= 0) continue;
+                                System.out.println(name + " had no shard left for " + player + ".");
+                            }
+                            if(outcome != Outcome.DROP) out.put(player);
+                            lock.lock();
+                            try{
+                                if(pending.decrementAndGet() == 0 && inputDone.get()) hasWork.signalAll();
+                            }finally{
+                                lock.unlock();
+                            }
+                        }
+                    }finally{
+                        if(running.decrementAndGet() == 0) finish.run();
+                    }
+                    return null;
+                });
+            }
+        }
+        tail = out;
+        return this;
+    }
+
+    private static int shortestLiveDeque(ArrayList<ArrayDeque<Player>> deques, boolean[] alive) {
+        int best = -1;
+        for(int i = 0; i < deques.size(); i++){
+            if(!alive[i]) continue;
+            if(best < 0 || deques.get(i).size() < deques.get(best).size()) best = i;
+        }
+        return best;
+    }
+
+    private static Player steal(ArrayList<ArrayDeque<Player>> deques, int thief) {
+        int victim = -1;
+        for(int i = 0; i < deques.size(); i++){
+            if(i == thief) continue;
+            if(victim < 0 || deques.get(i).size() > deques.get(victim).size()) victim = i;
+        }
+        return victim < 0 ? null : deques.get(victim).pollLast();
+    }
+
+    private static int queued(ArrayList<ArrayDeque<Player>> deques) {
+        int total = 0;
+        for(ArrayDeque<Player> deque : deques) total += deque.size();
+        return total;
+    }
+
+    /*
+     * What happened to a player in a sharded stage.
+     */
+    public enum Outcome {
+        // Pass the player on
+        DONE,
+        // Do not pass the player on
+        DROP,
+        // Put the player back for any shard to try again
+        RETRY,
+        // Put the player back and stop using this shard
+        RETIRE
+    }
+
+    public interface ShardWork {
+        Outcome work(int shard, Player player) throws InterruptedException;
+    }
+
+    /*
+     * Runs the last stage on the calling thread until every player has come through, then stops the
+     * workers.
+     * @param sink              Receives each player that made it through every stage
+     * */
+    public void drain(Consumer<Player> sink) {
+        try{
+            Player player;
+            while((player = tail.take()) != END){
+                sink.accept(player);
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package daniel.mlm;
+
+/*
+ * One player moving through the pipeline. Each stage fills in its part: the UUID once it is resolved,
+ * then the stats once they are fetched.
+ */
+public class Player {
+
+    // Username as shown on the leaderboard
+    public final String name;
+
+    // UUID according to Mojang, null until resolved or if it could not be resolved
+    public volatile String uuid;
+
+    // Stats at the configured paths, null until fetched or if they could not be fetched
+    public volatile double[] stats;
+
+    // Number of times fetching the stats was throttled
+    public volatile int throttled = 0;
+
+    // Why the stats could not be fetched, null if they were or have not been tried yet
+    public volatile String failure;
+
+    public Player(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,206 @@
+package daniel.mlm;
+
+import java.util.Arrays;
+
+/*
+ * Players and their processed stats kept in parallel arrays, and sorted into leaderboard order.
+ * Sorting works on an array of row indices with a merge sort, and when only the top rows are wanted a
+ * heap of that many rows is kept instead so the rest are never sorted. Players with equal stats
+ * share a rank and are listed by name. Stats that are not a number always go last.
+ */
+public class Ranking {
+
+    private String[] names;
+
+    private double[] scores;
+
+    private int size = 0;
+
+    // Rows in leaderboard order after sorting, null before
+    private int[] order;
+
+    // Rank of each position in order
+    private int[] ranks;
+
+    // Whether the leaderboard goes from least to most
+    private boolean reverse;
+
+    public Ranking(int expectedSize) {
+        names = new String[Math.max(16, expectedSize)];
+        scores = new double[names.length];
+    }
+
+    /*
+     * @param name              Username of a player
+     * @param score             Processed stat of the player
+     * */
+    public void add(String name, double score) {
+        if(size == names.length){
+            names = Arrays.copyOf(names, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        names[size] = name;
+        scores[size] = score;
+        size++;
+        order = null;
+    }
+
+    /*
+     * Sorts every player into leaderboard order.
+     * @param reverse           Whether to order from least to most
+     * @return                  This ranking
+     * */
+    public Ranking sort(boolean reverse) {
+        return top(size, reverse);
+    }
+
+    /*
+     * Sorts the best players into leaderboard order, leaving out everyone else.
+     * @param count             Number of players to keep
+     * @param reverse           Whether to order from least to most
+     * @return                  This ranking
+     * */
+    public Ranking top(int count, boolean reverse) {
+        this.reverse = reverse;
+        int[] rows;
+        if(count >= size){
+            rows = new int[size];
+            for(int i = 0; i < size; i++) rows[i] = i;
+        }
+        else{
+            rows = selectTop(Math.max(0, count));
+        }
+        mergeSort(rows, new int[rows.length], 0, rows.length);
+        order = rows;
+        ranks = new int[rows.length];
+        for(int i = 0; i < rows.length; i++){
+            ranks[i] = i > 0 && sameScore(scores[rows[i]], scores[rows[i - 1]]) ? ranks[i - 1] : i + 1;
+        }
+        return this;
+    }
+
+    /*
+     * @return                  Number of players in leaderboard order
+     * */
+    public int rows() {
+        return order == null ? 0 : order.length;
+    }
+
+    public String name(int row) {
+        return names[order[row]];
+    }
+
+    public double score(int row) {
+        return scores[order[row]];
+    }
+
+    public int rank(int row) {
+        return ranks[row];
+    }
+
+    /*
+     * @return                  Distribution of every score added, including players left out by top
+     * */
+    public ScoreSummary summary() {
+        ScoreSummary summary = new ScoreSummary();
+        for(int i = 0; i < size; i++) summary.add(scores[i]);
+        return summary;
+    }
+
+    /*
+     * Keeps the best count rows in a heap whose root is the worst of them, so each other row only has
+     * to be compared against the root.
+     * */
+    private int[] selectTop(int count) {
+        int[] heap = new int[count];
+        if(count == 0) return heap;
+        for(int i = 0; i < count; i++){
+            heap[i] = i;
+            siftUp(heap, i);
+        }
+        for(int i = count; i < size; i++){
+            if(compare(i, heap[0]) < 0){
+                heap[0] = i;
+                siftDown(heap, 0, count);
+            }
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while(i > 0){
+            int parent = (i - 1) / 2;
+            if(compare(heap[i], heap[parent]) <= 0) return;
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int length) {
+        while(true){
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if(left < length && compare(heap[left], heap[worst]) > 0) worst = left;
+            if(right < length && compare(heap[right], heap[worst]) > 0) worst = right;
+            if(worst == i) return;
+            swap(heap, i, worst);
+            i = worst;
+        }
+    }
+
+    private void mergeSort(int[] rows, int[] temp, int from, int to) {
+        if(to - from < 16){
+            for(int i = from + 1; i < to; i++){
+                int row = rows[i];
+                int j = i - 1;
+                while(j >= from && compare(rows[j], row) > 0){
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, temp, from, middle);
+        mergeSort(rows, temp, middle, to);
+        if(compare(rows[middle - 1], rows[middle]) <= 0) return;
+        System.arraycopy(rows, from, temp, from, to - from);
+        int left = from;
+        int right = middle;
+        for(int i = from; i < to; i++){
+            if(right >= to || (left < middle && compare(temp[left], temp[right]) <= 0)) rows[i] = temp[left++];
+            else rows[i] = temp[right++];
+        }
+    }
+
+    /*
+     * @return                  Negative if row a goes above row b, positive if below
+     * */
+    private int compare(int a, int b) {
+        return compare(scores[a], names[a], scores[b], names[b], reverse);
+    }
+
+    /*
+     * @return                  Negative if player a goes above player b in leaderboard order,
+     *                          positive if below
+     * */
+    static int compare(double x, String a, double y, String b, boolean reverse) {
+        boolean xNaN = x != x;
+        boolean yNaN = y != y;
+        if(xNaN != yNaN) return xNaN ? 1 : -1;
+        if(!xNaN && x != y) return (x > y) ^ reverse ? -1 : 1;
+        return a.compareTo(b);
+    }
+
+    static boolean sameScore(double x, double y) {
+        return x == y || (x != x && y != y);
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+}
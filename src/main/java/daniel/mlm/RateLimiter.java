@@ -0,0 +1,110 @@
+package daniel.mlm;
+
+/*
+ * Token bucket limiting how fast requests are sent to one API. Tokens refill continuously at the
+ * configured rate up to the burst capacity, and every request has to take one before it is sent.
+ * Callers reserve their token under the lock and then wait outside of it, so waiting threads are
+ * served in the order they arrived.
+ */
+public class RateLimiter {
+
+    // Name of the API being limited, used in debug messages
+    private final String name;
+
+    // Number of tokens added per second
+    private double permitsPerSecond;
+
+    // Maximum number of tokens that can be saved up while idle
+    private double capacity;
+
+    // Tokens currently available, negative when callers have reserved future tokens
+    private double tokens;
+
+    // Time of the last refill in nanoseconds
+    private long lastRefill;
+
+    // Time callers spent waiting for a token
+    private final Histogram waits;
+
+    /*
+     * @param name              Name of the API being limited
+     * @param permitsPerSecond  Requests allowed per second
+     * @param capacity          Maximum burst of requests allowed after being idle
+     * */
+    public RateLimiter(String name, double permitsPerSecond, double capacity) {
+        if(permitsPerSecond <= 0) throw new IllegalArgumentException("Rate for " + name + " must be positive.");
+        this.name = name;
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1.0, capacity);
+        this.tokens = 1.0;
+        this.lastRefill = System.nanoTime();
+        this.waits = Metrics.histogram("limiter." + name);
+    }
+
+    /*
+     * Blocks until a request may be sent.
+     * */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized(this){
+            refill();
+            tokens -= 1.0;
+            waitNanos = tokens >= 0 ? 0 : (long)(-tokens / permitsPerSecond * 1_000_000_000L);
+        }
+        waits.record(waitNanos);
+        if(waitNanos > 0){
+            Thread.sleep(waitNanos / 1_000_000, (int)(waitNanos % 1_000_000));
+        }
+    }
+
+    /*
+     * Takes a token only if one is free right now, for requests that are only worth sending without
+     * waiting.
+     * @return                  Whether a token was taken
+     * */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if(tokens < 1.0) return false;
+        tokens -= 1.0;
+        return true;
+    }
+
+    /*
+     * @return                  Requests allowed per second
+     * */
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /*
+     * Changes the rate, keeping the burst capacity at one second of requests.
+     * @param permitsPerSecond  New number of requests allowed per second
+     * */
+    public synchronized void setRate(double permitsPerSecond) {
+        if(!(permitsPerSecond > 0)) return;
+        refill();
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1.0, permitsPerSecond);
+        tokens = Math.min(tokens, capacity);
+    }
+
+    /*
+     * Stops requests from being sent for a while, by taking the tokens that would have been added in
+     * that time. Requests already waiting keep their place in line.
+     * @param millis            Milliseconds to hold off for
+     * */
+    public synchronized void pause(long millis) {
+        refill();
+        tokens = Math.min(tokens, -millis / 1000.0 * permitsPerSecond);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) / 1_000_000_000.0 * permitsPerSecond);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,11 @@
+package daniel.mlm;
+
+/*
+ * Thrown when Hypixel refuses an API key, such as when it has been revoked.
+ */
+public class RejectedKeyException extends ApiException {
+
+    public RejectedKeyException(String message) {
+        super(message);
+    }
+}
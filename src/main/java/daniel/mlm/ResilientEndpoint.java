@@ -0,0 +1,187 @@
+package daniel.mlm;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/*
+ * Sends requests to one API so that no single request can hold up a run. Each attempt has a deadline
+ * and is aborted once it passes. Attempts that fail in a way that could work next time are tried
+ * again after a random backoff that doubles with each try: connection errors, timeouts and 5xx
+ * answers. When hedging, an attempt still waiting after the API's 95th percentile answer time gets a
+ * duplicate sent alongside it and whichever answers first is used. A CircuitBreaker pauses the API
+ * after repeated failures. Answers that say the request itself was wrong, like a rejected key or a
+ * 429, are passed straight back for the caller to handle.
+ */
+public class ResilientEndpoint {
+
+    // Percentile of answer times past which a duplicate request is sent
+    private static final double HEDGE_PERCENTILE = 95;
+
+    // Answers needed before the percentile is trusted enough to hedge on
+    private static final int HEDGE_MIN_SAMPLES = 20;
+
+    // Longest backoff between tries, in milliseconds
+    private static final long MAX_BACKOFF = 30_000;
+
+    private final String name;
+
+    private final HttpClientPool http;
+
+    private final CircuitBreaker breaker;
+
+    // Time successful attempts took to answer
+    private final Histogram latencies = new Histogram();
+
+    /*
+     * @param name              Name of the API, used in messages and metrics
+     * @param http              Client to send the requests with
+     * @param breakerFailures   Failures in a row that pause the API, 0 to never pause it
+     * @param breakerCooldown   Milliseconds the API is paused for
+     * */
+    public ResilientEndpoint(String name, HttpClientPool http, int breakerFailures, long breakerCooldown) {
+        this.name = name;
+        this.http = http;
+        breaker = new CircuitBreaker(name, breakerFailures, breakerCooldown);
+    }
+
+    /*
+     * Sends a request until it gets an answer or runs out of tries. The caller has already taken a
+     * token from the limiter for the first try.
+     * @param job               Job the request is for, giving the deadline, retries and whether to hedge
+     * @param limiter           Rate limiter of the API, tries after the first and duplicates take a
+     *                          token from it too
+     * @param what              What the request is for, used in messages
+     * @param requests          Makes a new copy of the request for each try
+     * @param handler           Reads the answer, and throws an ApiException if it is not one that
+     *                          trying again could change
+     * @return                  Whatever the handler returned
+     * @throws IOException      The last failure if every try failed, or the handler's ApiException
+     * */
+    public <T> T call(LeaderboardJob job, RateLimiter limiter, String what, Supplier<HttpUriRequest> requests,
+                      ResponseHandler<T> handler) throws IOException {
+        IOException last = null;
+        try{
+            for(int attempt = 0; attempt <= job.retries; attempt++){
+                if(attempt > 0){
+                    long backoff = ThreadLocalRandom.current().nextLong(0, Math.min(MAX_BACKOFF, job.retryBackoff << Math.min(attempt - 1, 16)) + 1);
+                    Metrics.count("retries." + name);
+                    if(job.debug) System.out.println(name + " request for " + what + " failed (" + last.getMessage() + "), trying again in " + backoff + "ms.");
+                    Thread.sleep(backoff);
+                    limiter.acquire();
+                }
+                long ticket = breaker.acquire();
+                if(ticket < 0){
+                    last = new IOException(name + " is paused after failing repeatedly");
+                    continue;
+                }
+                try{
+                    T result = attempt(job, limiter, requests, handler);
+                    breaker.success(ticket);
+                    return result;
+                }catch(ApiException | RuntimeException e){
+                    // The API answered, so it is up, but trying again will not change its answer
+                    breaker.success(ticket);
+                    throw e;
+                }catch(IOException e){
+                    breaker.failure(ticket);
+                    last = e;
+                }finally{
+                    breaker.release(ticket);
+                }
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted sending " + name + " request for " + what);
+        }
+        Metrics.count("exhausted." + name);
+        throw last;
+    }
+
+    /*
+     * Sends one try of a request, with a duplicate if it is slower than usual and hedging is on.
+     * Whatever is still in flight at the deadline or once an answer has been used is aborted.
+     * */
+    private <T> T attempt(LeaderboardJob job, RateLimiter limiter, Supplier<HttpUriRequest> requests,
+                          ResponseHandler<T> handler) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(job.requestTimeout);
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger();
+        ArrayList<HttpUriRequest> sent = new ArrayList<>();
+        try{
+            send(requests.get(), handler, answer, pending, sent, false);
+            long hedgeAfter = job.hedge && latencies.count() >= HEDGE_MIN_SAMPLES ? latencies.percentile(HEDGE_PERCENTILE) : -1;
+            if(hedgeAfter >= 0 && hedgeAfter < deadline - start){
+                try{
+                    return unwrap(answer, hedgeAfter);
+                }catch(TimeoutException e){
+                    // Only worth sending if it does not have to wait for the limiter
+                    if(!answer.isDone() && limiter.tryAcquire()){
+                        Metrics.count("hedges." + name);
+                        send(requests.get(), handler, answer, pending, sent, true);
+                    }
+                }
+            }
+            return unwrap(answer, deadline - System.nanoTime());
+        }catch(TimeoutException e){
+            Metrics.count("timeouts." + name);
+            throw new SocketTimeoutException("No answer within " + job.requestTimeout + "ms");
+        }finally{
+            synchronized(sent){
+                for(HttpUriRequest request : sent) request.abort();
+            }
+        }
+    }
+
+    /*
+     * Sends a request on its own virtual thread, completing answer with the first success, or with the
+     * failure once every request sent for it has failed.
+     * */
+    private <T> void send(HttpUriRequest request, ResponseHandler<T> handler, CompletableFuture<T> answer,
+                          AtomicInteger pending, ArrayList<HttpUriRequest> sent, boolean hedge) {
+        synchronized(sent){
+            sent.add(request);
+        }
+        pending.incrementAndGet();
+        Thread.startVirtualThread(() -> {
+            long start = System.nanoTime();
+            try{
+                T result = http.execute(request, response -> {
+                    int status = response.getStatusLine().getStatusCode();
+                    if(status >= 500) throw new HttpResponseException(status, name + " answered " + response.getStatusLine());
+                    return handler.handleResponse(response);
+                });
+                latencies.record(System.nanoTime() - start);
+                if(answer.complete(result) && hedge) Metrics.count("hedges.won." + name);
+            }catch(IOException | RuntimeException e){
+                // A duplicate still in flight may yet answer, even if this one got an ApiException
+                if(pending.decrementAndGet() == 0) answer.completeExceptionally(e);
+                return;
+            }
+            pending.decrementAndGet();
+        });
+    }
+
+    private static <T> T unwrap(CompletableFuture<T> answer, long nanos) throws IOException, InterruptedException, TimeoutException {
+        try{
+            return answer.get(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof IOException cause) throw cause;
+            if(e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IOException(e.getCause());
+        }
+    }
+}
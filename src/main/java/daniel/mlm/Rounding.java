@@ -0,0 +1,40 @@
+package daniel.mlm;
+
+/*
+ * Rounding of processed stats to the decimals a leaderboard shows, used wherever scores are made so
+ * every mode ranks the same numbers.
+ */
+public class Rounding {
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private Rounding() {}
+
+    /*
+     * Rounds half up, away from zero, on the exact value of num, the same as a DecimalFormat with
+     * RoundingMode.HALF_UP would, without building any strings. The error of scaling num up is found
+     * with a fused multiply-add, so a number just below a half is not pushed onto it.
+     * @param num               Double number to round
+     * @param decimals          Number of decimals to keep
+     * @return                  Rounded number
+     * */
+    public static double roundTo(double num, int decimals) {
+        if(decimals == 0){
+            return Math.round(num);
+        }
+        if(decimals > 22 || Double.isNaN(num) || Double.isInfinite(num)) return num;
+        double power = POWERS_OF_TEN[decimals];
+        double abs = Math.abs(num);
+        double scaled = abs * power;
+        // Past 2^53 whole numbers are no longer all doubles, so the digits kept are already all there are
+        if(scaled >= 0x1p53) return num;
+        double error = Math.fma(abs, power, -scaled);
+        double whole = Math.floor(scaled);
+        // Exact once whole is taken off, and compared against the error instead of adding it in
+        double half = scaled - whole - 0.5;
+        if(half >= -error) whole++;
+        return Math.copySign(whole / power, num);
+    }
+}
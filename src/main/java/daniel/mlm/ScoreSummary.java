@@ -0,0 +1,471 @@
+package daniel.mlm;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/*
+ * Distribution of a leaderboard's scores, built in one pass in memory that does not grow with the
+ * number of players: count, mean and variance by Welford's method, the exact minimum and maximum, a
+ * quantile sketch and a histogram. The sketch counts scores in buckets whose bounds grow by GAMMA,
+ * the same as DDSketch, so every quantile read back is within RELATIVE_ACCURACY of a real score. The
+ * histogram counts scores between the fixed bounds 1, 2, 5, 10, 20, 50 and so on, mirrored for
+ * negative scores. Neither depends on the scores seen, so summaries of separate runs or shards merge
+ * into exactly the summary of every score at once. Scores that are not a number, of players whose
+ * stats could not be fetched, and infinite scores are only counted.
+ *
+ * Saved as Json with the bucket counts of the sketch and histogram, which load reads back to merge.
+ */
+public class ScoreSummary {
+
+    private static final int VERSION = 1;
+
+    // Quantiles read back are within this fraction of a score
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Percentiles written to the summary file
+    private static final double[] PERCENTILES = {1, 5, 10, 25, 50, 75, 90, 95, 99};
+
+    private long count = 0;
+
+    private double mean = 0;
+
+    // Sum of squared differences from the mean
+    private double m2 = 0;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    // Scores that are not a number
+    private long missing = 0;
+
+    private long infinite = 0;
+
+    private long zeros = 0;
+
+    // Sketch buckets of positive scores, and of the magnitudes of negative scores
+    private final Buckets positive = new Buckets();
+
+    private final Buckets negative = new Buckets();
+
+    // Histogram buckets of positive scores, and of the magnitudes of negative scores
+    private final Buckets positiveHistogram = new Buckets();
+
+    private final Buckets negativeHistogram = new Buckets();
+
+    /*
+     * @param score             Processed stat of a player
+     * */
+    public void add(double score) {
+        if(Double.isNaN(score)){
+            missing++;
+            return;
+        }
+        if(Double.isInfinite(score)){
+            infinite++;
+            return;
+        }
+        count++;
+        double delta = score - mean;
+        mean += delta / count;
+        m2 += delta * (score - mean);
+        min = Math.min(min, score);
+        max = Math.max(max, score);
+        if(score == 0){
+            zeros++;
+        }
+        else if(score > 0){
+            positive.add(sketchBucket(score), 1);
+            positiveHistogram.add(histogramBucket(score), 1);
+        }
+        else{
+            negative.add(sketchBucket(-score), 1);
+            negativeHistogram.add(histogramBucket(-score), 1);
+        }
+    }
+
+    /*
+     * Adds every score of another summary to this one.
+     * @param other             Summary to add, left as it is
+     * */
+    public void merge(ScoreSummary other) {
+        if(other.count > 0){
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * ((double)count * other.count / total);
+            count = total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        missing += other.missing;
+        infinite += other.infinite;
+        zeros += other.zeros;
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        positiveHistogram.merge(other.positiveHistogram);
+        negativeHistogram.merge(other.negativeHistogram);
+    }
+
+    /*
+     * @return                  Number of scores that are finite numbers
+     * */
+    public long count() {
+        return count;
+    }
+
+    /*
+     * @return                  Number of scores that are not a number
+     * */
+    public long missing() {
+        return missing;
+    }
+
+    public long infinite() {
+        return infinite;
+    }
+
+    /*
+     * @return                  Mean of the finite scores, NaN without any
+     * */
+    public double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /*
+     * @return                  Population standard deviation of the finite scores, NaN without any
+     * */
+    public double stddev() {
+        return count == 0 ? Double.NaN : Math.sqrt(m2 / count);
+    }
+
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /*
+     * @param percentile        Percentile to find, from 0 to 100
+     * @return                  Score within RELATIVE_ACCURACY of the score at that percentile of the
+     *                          finite scores, NaN without any
+     * */
+    public double percentile(double percentile) {
+        if(count == 0) return Double.NaN;
+        long rank = (long)Math.floor(Math.min(Math.max(percentile, 0), 100) / 100 * (count - 1));
+        double value;
+        long below = negative.total();
+        if(rank < below){
+            // The most negative scores are in the highest buckets of negative
+            value = -sketchValue(negative.indexAt(below - 1 - rank));
+        }
+        else if(rank < below + zeros){
+            value = 0;
+        }
+        else{
+            value = sketchValue(positive.indexAt(rank - below - zeros));
+        }
+        return Math.min(max, Math.max(min, value));
+    }
+
+    /*
+     * Writes the summary as Json, with every percentile and non-empty histogram bucket readable as it
+     * is and the counts load needs to merge it again.
+     * @param out               Writer to write the Json to, left open
+     * */
+    public void write(Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        // The top histogram bound of scores near the largest double is infinite
+        json.setLenient(true);
+        json.beginObject();
+        json.name("version").value(VERSION);
+        json.name("relativeAccuracy").value(RELATIVE_ACCURACY);
+        json.name("count").value(count);
+        json.name("missing").value(missing);
+        json.name("infinite").value(infinite);
+        if(count > 0){
+            json.name("mean").value(mean);
+            json.name("stddev").value(stddev());
+            json.name("min").value(min);
+            json.name("max").value(max);
+            json.name("m2").value(m2);
+        }
+        json.name("percentiles").beginObject();
+        if(count > 0){
+            for(double percentile : PERCENTILES) json.name("p" + (int)percentile).value(percentile(percentile));
+        }
+        json.endObject();
+        json.name("histogram").beginArray();
+        for(int index = negativeHistogram.highest(); index >= negativeHistogram.lowest(); index--){
+            writeBucket(json, -histogramBound(index + 1), -histogramBound(index), negativeHistogram.get(index));
+        }
+        writeBucket(json, 0, 0, zeros);
+        for(int index = positiveHistogram.lowest(); index <= positiveHistogram.highest(); index++){
+            writeBucket(json, histogramBound(index), histogramBound(index + 1), positiveHistogram.get(index));
+        }
+        json.endArray();
+        json.name("zeros").value(zeros);
+        json.name("positive");
+        positive.write(json);
+        json.name("negative");
+        negative.write(json);
+        json.name("positiveHistogram");
+        positiveHistogram.write(json);
+        json.name("negativeHistogram");
+        negativeHistogram.write(json);
+        json.endObject();
+        json.flush();
+    }
+
+    /*
+     * @param file              File to write the summary to, replacing it
+     * */
+    public void save(File file) throws IOException {
+        try(Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)){
+            write(out);
+        }
+    }
+
+    /*
+     * @param in                Reader of a summary written by write
+     * @return                  The summary, which merges exactly with any other
+     * */
+    public static ScoreSummary read(Reader in) throws IOException {
+        ScoreSummary summary = new ScoreSummary();
+        JsonReader json = new JsonReader(in);
+        json.setLenient(true);
+        json.beginObject();
+        while(json.hasNext()){
+            switch(json.nextName()){
+                case "version" -> {
+                    int version = json.nextInt();
+                    if(version != VERSION) throw new IOException("Unknown summary version " + version);
+                }
+                case "relativeAccuracy" -> {
+                    if(json.nextDouble() != RELATIVE_ACCURACY) throw new IOException("Summary was made with another relative accuracy");
+                }
+                case "count" -> summary.count = json.nextLong();
+                case "missing" -> summary.missing = json.nextLong();
+                case "infinite" -> summary.infinite = json.nextLong();
+                case "mean" -> summary.mean = json.nextDouble();
+                case "min" -> summary.min = json.nextDouble();
+                case "max" -> summary.max = json.nextDouble();
+                case "m2" -> summary.m2 = json.nextDouble();
+                case "zeros" -> summary.zeros = json.nextLong();
+                case "positive" -> summary.positive.read(json);
+                case "negative" -> summary.negative.read(json);
+                case "positiveHistogram" -> summary.positiveHistogram.read(json);
+                case "negativeHistogram" -> summary.negativeHistogram.read(json);
+                // Read back from the buckets instead
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        if(summary.zeros + summary.positive.total() + summary.negative.total() != summary.count){
+            throw new IOException("Summary sketch does not add up to its count");
+        }
+        return summary;
+    }
+
+    /*
+     * @param file              File a summary was saved to
+     * */
+    public static ScoreSummary load(File file) throws IOException {
+        try(Reader in = new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8)){
+            return read(in);
+        }catch(IllegalStateException | NumberFormatException e){
+            throw new IOException(file + " is not a score summary", e);
+        }
+    }
+
+    private static void writeBucket(JsonWriter json, double from, double to, long count) throws IOException {
+        if(count == 0) return;
+        json.beginObject();
+        json.name("from").value(from);
+        json.name("to").value(to);
+        json.name("count").value(count);
+        json.endObject();
+    }
+
+    /*
+     * @param magnitude         Positive finite score
+     * @return                  Sketch bucket holding magnitudes from GAMMA^(index - 1) to GAMMA^index
+     * */
+    private static int sketchBucket(double magnitude) {
+        return (int)Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    /*
+     * @return                  Magnitude within RELATIVE_ACCURACY of every magnitude in the bucket
+     * */
+    private static double sketchValue(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /*
+     * @param magnitude         Positive finite score
+     * @return                  Histogram bucket holding magnitudes from histogramBound(index) up to
+     *                          histogramBound(index + 1)
+     * */
+    private static int histogramBucket(double magnitude) {
+        int index = 3 * (int)Math.floor(Math.log10(magnitude));
+        // The bounds are only approximately powers of ten, so the bucket is checked against them
+        while(histogramBound(index + 1) <= magnitude) index++;
+        while(histogramBound(index) > magnitude) index--;
+        return index;
+    }
+
+    /*
+     * @return                  Lowest magnitude of a histogram bucket: 1, 2 or 5 times a power of ten
+     * */
+    private static double histogramBound(int index) {
+        int decade = Math.floorDiv(index, 3);
+        double step = switch(Math.floorMod(index, 3)){
+            case 0 -> 1;
+            case 1 -> 2;
+            default -> 5;
+        };
+        // Dividing keeps bounds like 0.2 exact, multiplying by 10^-1 would not
+        return decade >= 0 ? step * Math.pow(10, decade) : step / Math.pow(10, -decade);
+    }
+
+    /*
+     * Counts in consecutive buckets, kept in one array from the lowest index seen to the highest. The
+     * indices of both the sketch and the histogram are bounded by the range of a double, so the array
+     * never grows past a few tens of thousands of counts however many scores are added.
+     */
+    private static class Buckets {
+
+        private long[] counts = new long[0];
+
+        // Index of counts[0]
+        private int offset = 0;
+
+        private long total = 0;
+
+        void add(int index, long amount) {
+            if(counts.length == 0){
+                counts = new long[16];
+                offset = index - 8;
+            }
+            else if(index < offset || index >= offset + counts.length){
+                int lowest = Math.min(offset, index);
+                int highest = Math.max(offset + counts.length - 1, index);
+                // Grow by at least half again so repeated growth in one direction stays cheap
+                int length = Math.max(highest - lowest + 1, counts.length + counts.length / 2);
+                int newOffset = index < offset ? highest - length + 1 : lowest;
+                long[] grown = new long[length];
+                System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+                counts = grown;
+                offset = newOffset;
+            }
+            counts[index - offset] += amount;
+            total += amount;
+        }
+
+        void merge(Buckets other) {
+            for(int i = 0; i < other.counts.length; i++){
+                if(other.counts[i] != 0) add(other.offset + i, other.counts[i]);
+            }
+        }
+
+        long get(int index) {
+            return index < offset || index >= offset + counts.length ? 0 : counts[index - offset];
+        }
+
+        long total() {
+            return total;
+        }
+
+        /*
+         * @return                  Lowest index with a count, Integer.MAX_VALUE if there are none
+         * */
+        int lowest() {
+            for(int i = 0; i < counts.length; i++){
+                if(counts[i] != 0) return offset + i;
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        /*
+         * @return                  Highest index with a count, Integer.MIN_VALUE if there are none
+         * */
+        int highest() {
+            for(int i = counts.length - 1; i >= 0; i--){
+                if(counts[i] != 0) return offset + i;
+            }
+            return Integer.MIN_VALUE;
+        }
+
+        /*
+         * @param rank              Position of a value counted, from 0 for the lowest
+         * @return                  Index of the bucket holding it
+         * */
+        int indexAt(long rank) {
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if(seen > rank) return offset + i;
+            }
+            return offset + counts.length - 1;
+        }
+
+        /*
+         * Writes the lowest index with a count and the counts from it to the highest one.
+         * */
+        void write(JsonWriter json) throws IOException {
+            int lowest = lowest();
+            json.beginObject();
+            if(lowest != Integer.MAX_VALUE){
+                json.name("offset").value(lowest);
+                json.name("counts").beginArray();
+                for(int i = lowest - offset; i <= highest() - offset; i++) json.value(counts[i]);
+                json.endArray();
+            }
+            json.endObject();
+        }
+
+        void read(JsonReader json) throws IOException {
+            int start = 0;
+            long[] read = new long[0];
+            int size = 0;
+            json.beginObject();
+            while(json.hasNext()){
+                switch(json.nextName()){
+                    case "offset" -> start = json.nextInt();
+                    case "counts" -> {
+                        json.beginArray();
+                        while(json.hasNext()){
+                            if(size == read.length) read = Arrays.copyOf(read, Math.max(16, size * 2));
+                            read[size++] = json.nextLong();
+                        }
+                        json.endArray();
+                    }
+                    default -> json.skipValue();
+                }
+            }
+            json.endObject();
+            for(int i = 0; i < size; i++){
+                if(read[i] < 0) throw new IOException("Negative bucket count in summary");
+                if(read[i] != 0) add(start + i, read[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package daniel.mlm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/*
+ * Append-only history of every run of one leaderboard, kept in a directory of its own. Each run adds a
+ * snapshot of every row, stored column by column and deflated, with each player's rank change and
+ * stat change since the snapshot before. Players are stored as ids into a dictionary of names, and a
+ * record per row is chained to the same player's record of their last snapshot, so the history of
+ * one player is read by following their chain instead of opening every snapshot. Only the
+ * dictionary, the chain heads and the list of snapshots are kept in memory.
+ *
+ * players        Names in order of id, as UTF strings
+ * snapshots      Snapshot blocks: long time, int rows, then each column as int length and deflated bytes
+ * snapshots.idx  Per snapshot: long time, long offset, int length, int rows, long end of its history
+ *                records. A snapshot counts once this is written
+ * history        Per row: int snapshot, int rank, double stat, long offset of the player's record before
+ * heads          Per player id: long offset of their latest record in history, -1 if there is none
+ */
+public class SnapshotStore implements Closeable {
+
+    // Bytes of a record in snapshots.idx
+    private static final int INDEX_RECORD = 32;
+
+    // Bytes of a record in history
+    private static final int HISTORY_RECORD = 24;
+
+    // Columns of a snapshot, in the order they are stored
+    private static final int IDS = 0, RANKS = 1, STATS = 2, RANK_CHANGES = 3, STAT_CHANGES = 4, COLUMNS = 5;
+
+    // Rank change of a player who was not in the snapshot compared against
+    private static final int NOT_SEEN = Integer.MIN_VALUE;
+
+    private final File dir;
+
+    private final DataOutputStream playersOut;
+
+    // Channel of the players dictionary playersOut writes to, forced before a snapshot refers to new ids
+    private final FileChannel playersChannel;
+
+    private final FileChannel snapshots;
+
+    private final FileChannel index;
+
+    private final FileChannel history;
+
+    private final FileChannel headsFile;
+
+    // Lowercase name - id pairs
+    private final HashMap<String, Integer> ids = new HashMap<>();
+
+    private final ArrayList<String> names = new ArrayList<>();
+
+    private long[] heads;
+
+    // Time, offset, length and end of the history records of every snapshot
+    private long[] times = new long[16];
+
+    private long[] offsets = new long[16];
+
+    private int[] lengths = new int[16];
+
+    private long[] historyEnds = new long[16];
+
+    private int snapshotCount = 0;
+
+    /*
+     * Opens the store, creating it if there is none. Anything written after the last complete
+     * snapshot by a run that did not finish is cut off.
+     * @param dir               Directory the store is kept in
+     * */
+    public SnapshotStore(File dir) throws IOException {
+        this.dir = dir;
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+        File playersFile = new File(dir, "players");
+        long complete = 0;
+        if(playersFile.exists()){
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(playersFile), 1 << 16))){
+                while(true){
+                    String name = in.readUTF();
+                    ids.put(name.toLowerCase(Locale.ROOT), names.size());
+                    names.add(name);
+                    complete += 2 + utfLength(name);
+                }
+            }catch(EOFException e){
+                // Reached the end of the dictionary, or a name cut off by a crash
+            }
+            try(RandomAccessFile file = new RandomAccessFile(playersFile, "rw")){
+                if(file.length() > complete) file.setLength(complete);
+            }
+        }
+        FileOutputStream playersStream = new FileOutputStream(playersFile, true);
+        playersChannel = playersStream.getChannel();
+        playersOut = new DataOutputStream(new BufferedOutputStream(playersStream, 1 << 16));
+        index = open("snapshots.idx");
+        snapshots = open("snapshots");
+        history = open("history");
+        headsFile = open("heads");
+        readIndex();
+        long end = snapshotCount == 0 ? 0 : offsets[snapshotCount - 1] + lengths[snapshotCount - 1];
+        if(snapshots.size() > end) snapshots.truncate(end);
+        heads = new long[Math.max(16, names.size())];
+        Arrays.fill(heads, -1);
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(headsFile.size(), (long)names.size() * 8));
+        readFully(headsFile, buffer, 0);
+        buffer.flip();
+        for(int id = 0; buffer.remaining() >= 8; id++) heads[id] = buffer.getLong();
+        long historyEnd = snapshotCount == 0 ? 0 : historyEnds[snapshotCount - 1];
+        boolean headsPastEnd = false;
+        for(int id = 0; id < names.size(); id++) headsPastEnd |= heads[id] >= historyEnd;
+        if(headsPastEnd || history.size() > historyEnd) rollBack(historyEnd);
+    }
+
+    public int snapshots() {
+        return snapshotCount;
+    }
+
+    /*
+     * @param snapshot          Number of a snapshot, 0 being the first
+     * @return                  Epoch milliseconds the snapshot was taken
+     * */
+    public long time(int snapshot) {
+        return times[snapshot];
+    }
+
+    /*
+     * Adds a snapshot of a leaderboard.
+     * @param leaderboard       Ranking sorted into leaderboard order
+     * @param time              Epoch milliseconds the leaderboard was created
+     * */
+    public void append(Ranking leaderboard, long time) throws IOException {
+        int rows = leaderboard.rows();
+        int knownPlayers = names.size();
+        int[] rowIds = new int[rows];
+        for(int row = 0; row < rows; row++) rowIds[row] = id(leaderboard.name(row));
+        playersOut.flush();
+        boolean newPlayers = names.size() > knownPlayers;
+
+        // Rank and stat of every player in the snapshot before, by id
+        int[] lastRanks = new int[names.size()];
+        double[] lastStats = new double[names.size()];
+        if(snapshotCount > 0){
+            Snapshot last = read(snapshotCount - 1, IDS, RANKS, STATS);
+            for(int row = 0; row < last.rows; row++){
+                lastRanks[last.ids[row]] = last.ranks[row];
+                lastStats[last.ids[row]] = last.stats[row];
+            }
+        }
+
+        ColumnWriter idColumn = new ColumnWriter(), rankColumn = new ColumnWriter(), statColumn = new ColumnWriter(),
+                rankChangeColumn = new ColumnWriter(), statChangeColumn = new ColumnWriter();
+        ByteBuffer records = ByteBuffer.allocate(rows * HISTORY_RECORD);
+        long historyEnd = history.size();
+        long lastBits = 0;
+        int lastRank = 0;
+        for(int row = 0; row < rows; row++){
+            int id = rowIds[row];
+            int rank = leaderboard.rank(row);
+            double stat = leaderboard.score(row);
+            idColumn.varint(id);
+            rankColumn.varint(rank - lastRank);
+            lastRank = rank;
+            // Stats in leaderboard order are close to the one before, so most of their high bits cancel
+            long bits = Double.doubleToRawLongBits(stat);
+            statColumn.out.writeLong(bits ^ lastBits);
+            lastBits = bits;
+            boolean seen = lastRanks[id] > 0;
+            // 0 marks a player who was not in the snapshot before, every change is stored one higher
+            rankChangeColumn.varint(seen ? zigzag(lastRanks[id] - rank) + 1 : 0);
+            statChangeColumn.out.writeDouble(seen ? stat - lastStats[id] : Double.NaN);
+            records.putInt(snapshotCount).putInt(rank).putDouble(stat).putLong(heads[id]);
+            heads[id] = historyEnd + (long)row * HISTORY_RECORD;
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream blockOut = new DataOutputStream(block);
+        blockOut.writeLong(time);
+        blockOut.writeInt(rows);
+        for(ColumnWriter column : new ColumnWriter[]{idColumn, rankColumn, statColumn, rankChangeColumn, statChangeColumn}){
+            byte[] bytes = column.finish();
+            blockOut.writeInt(bytes.length);
+            blockOut.write(bytes);
+        }
+        long offset = snapshots.size();
+        writeFully(snapshots, ByteBuffer.wrap(block.toByteArray()), offset);
+        records.flip();
+        writeFully(history, records, historyEnd);
+        // Every name and record the heads refer to must be on disk before the heads are written
+        if(newPlayers) playersChannel.force(false);
+        snapshots.force(false);
+        history.force(false);
+        ByteBuffer headBytes = ByteBuffer.allocate(names.size() * 8);
+        for(int id = 0; id < names.size(); id++) headBytes.putLong(heads[id]);
+        headBytes.flip();
+        writeFully(headsFile, headBytes, 0);
+        headsFile.force(false);
+        // The snapshot only counts from here, so a crash before this leaves the store as it was
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD);
+        record.putLong(time).putLong(offset).putInt(block.size()).putInt(rows).putLong(historyEnd + records.limit()).flip();
+        writeFully(index, record, (long)snapshotCount * INDEX_RECORD);
+        index.force(false);
+        addIndex(time, offset, block.size(), historyEnd + records.limit());
+    }
+
+    /*
+     * @param name              Username of a player, in any case
+     * @return                  Every snapshot the player is in, oldest first, empty if there are none
+     * */
+    public ArrayList<Entry> history(String name) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        Integer id = ids.get(name.toLowerCase(Locale.ROOT));
+        if(id == null) return entries;
+        ByteBuffer record = ByteBuffer.allocate(HISTORY_RECORD);
+        // Snapshot, rank and stat of each record, newest first as the chain is followed
+        ArrayList<double[]> records = new ArrayList<>();
+        for(long offset = heads[id]; offset >= 0; ){
+            record.clear();
+            readFully(history, record, offset);
+            record.flip();
+            int snapshot = record.getInt();
+            int rank = record.getInt();
+            double stat = record.getDouble();
+            offset = record.getLong();
+            records.add(new double[]{snapshot, rank, stat});
+        }
+        for(int i = records.size() - 1; i >= 0; i--){
+            int snapshot = (int)records.get(i)[0];
+            int rank = (int)records.get(i)[1];
+            double stat = records.get(i)[2];
+            double[] before = i + 1 < records.size() ? records.get(i + 1) : null;
+            boolean seen = before != null && before[0] == snapshot - 1;
+            entries.add(new Entry(names.get(id), times[snapshot], rank, stat, seen,
+                    seen ? (int)before[1] - rank : 0, seen ? stat - before[2] : Double.NaN));
+        }
+        return entries;
+    }
+
+    /*
+     * Finds the players whose rank changed the most between the latest snapshot and the one the given
+     * number of runs before it. Only the two snapshots are read.
+     * @param runs              Number of runs to look back over
+     * @param count             Most players to return in each direction
+     * @return                  Up to count players who rose the most, best first, followed by up to count
+     *                          who fell the most, worst first, empty with fewer snapshots than that
+     * */
+    public ArrayList<Entry> movers(int runs, int count) throws IOException {
+        ArrayList<Entry> movers = new ArrayList<>();
+        if(runs < 1 || snapshotCount <= runs) return movers;
+        Snapshot latest;
+        int[] changes;
+        double[] statChanges;
+        if(runs == 1){
+            // The changes against the snapshot before are stored with the latest one
+            latest = read(snapshotCount - 1, IDS, RANKS, STATS, RANK_CHANGES, STAT_CHANGES);
+            changes = latest.rankChanges;
+            statChanges = latest.statChanges;
+        }
+        else{
+            latest = read(snapshotCount - 1, IDS, RANKS, STATS);
+            Snapshot earlier = read(snapshotCount - 1 - runs, IDS, RANKS, STATS);
+            int[] earlierRows = new int[names.size()];
+            Arrays.fill(earlierRows, -1);
+            for(int row = 0; row < earlier.rows; row++) earlierRows[earlier.ids[row]] = row;
+            changes = new int[latest.rows];
+            statChanges = new double[latest.rows];
+            for(int row = 0; row < latest.rows; row++){
+                int before = earlierRows[latest.ids[row]];
+                changes[row] = before < 0 ? NOT_SEEN : earlier.ranks[before] - latest.ranks[row];
+                statChanges[row] = before < 0 ? Double.NaN : latest.stats[row] - earlier.stats[before];
+            }
+        }
+        int moved = 0;
+        Integer[] order = new Integer[latest.rows];
+        for(int row = 0; row < latest.rows; row++){
+            if(changes[row] != NOT_SEEN && changes[row] != 0) order[moved++] = row;
+        }
+        order = Arrays.copyOf(order, moved);
+        Arrays.sort(order, (a, b) -> changes[b] != changes[a] ? Integer.compare(changes[b], changes[a]) : Integer.compare(a, b));
+        for(int i = 0; i < Math.min(count, moved) && changes[order[i]] > 0; i++){
+            movers.add(mover(latest, order[i], changes, statChanges));
+        }
+        for(int i = moved - 1; i >= Math.max(0, moved - count) && changes[order[i]] < 0; i--){
+            movers.add(mover(latest, order[i], changes, statChanges));
+        }
+        return movers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        playersOut.close();
+        snapshots.close();
+        index.close();
+        history.close();
+        headsFile.close();
+    }
+
+    private Entry mover(Snapshot latest, int row, int[] changes, double[] statChanges) {
+        return new Entry(names.get(latest.ids[row]), latest.time, latest.ranks[row], latest.stats[row], true,
+                changes[row], statChanges[row]);
+    }
+
+    private int id(String name) throws IOException {
+        String key = name.toLowerCase(Locale.ROOT);
+        Integer id = ids.get(key);
+        if(id != null) return id;
+        id = names.size();
+        ids.put(key, id);
+        names.add(name);
+        playersOut.writeUTF(name);
+        if(id == heads.length){
+            heads = Arrays.copyOf(heads, heads.length * 2);
+            Arrays.fill(heads, id, heads.length, -1);
+        }
+        return id;
+    }
+
+    private FileChannel open(String name) throws IOException {
+        return FileChannel.open(new File(dir, name).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void readIndex() throws IOException {
+        long complete = index.size() / INDEX_RECORD;
+        ByteBuffer buffer = ByteBuffer.allocate((int)(complete * INDEX_RECORD));
+        readFully(index, buffer, 0);
+        buffer.flip();
+        for(int i = 0; i < complete; i++){
+            long time = buffer.getLong();
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            buffer.getInt();
+            addIndex(time, offset, length, buffer.getLong());
+        }
+        if(index.size() > complete * INDEX_RECORD) index.truncate(complete * INDEX_RECORD);
+    }
+
+    private void addIndex(long time, long offset, int length, long historyEnd) {
+        if(snapshotCount == times.length){
+            times = Arrays.copyOf(times, snapshotCount * 2);
+            offsets = Arrays.copyOf(offsets, snapshotCount * 2);
+            lengths = Arrays.copyOf(lengths, snapshotCount * 2);
+            historyEnds = Arrays.copyOf(historyEnds, snapshotCount * 2);
+        }
+        times[snapshotCount] = time;
+        offsets[snapshotCount] = offset;
+        lengths[snapshotCount] = length;
+        historyEnds[snapshotCount] = historyEnd;
+        snapshotCount++;
+    }
+
+    /*
+     * Undoes the history records of a snapshot that never finished writing. The records past the end
+     * cannot be trusted to have reached the disk, so instead of following their chains back every head
+     * is worked out again from the ids of the complete snapshots, the last snapshot a player is in
+     * holding their latest record.
+     * @param end               End of the history records of the last complete snapshot
+     * */
+    private void rollBack(long end) throws IOException {
+        Arrays.fill(heads, -1);
+        for(int snapshot = 0; snapshot < snapshotCount; snapshot++){
+            long start = snapshot == 0 ? 0 : historyEnds[snapshot - 1];
+            Snapshot read = read(snapshot, IDS);
+            for(int row = 0; row < read.rows; row++) heads[read.ids[row]] = start + (long)row * HISTORY_RECORD;
+        }
+        history.truncate(end);
+        ByteBuffer headBytes = ByteBuffer.allocate(names.size() * 8);
+        for(int id = 0; id < names.size(); id++) headBytes.putLong(heads[id]);
+        writeFully(headsFile, headBytes.flip(), 0);
+        headsFile.force(false);
+    }
+
+    /*
+     * Reads the wanted columns of a snapshot, inflating only those.
+     * */
+    private Snapshot read(int snapshot, int... columns) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(lengths[snapshot]);
+        readFully(snapshots, block, offsets[snapshot]);
+        block.flip();
+        Snapshot read = new Snapshot(block.getLong(), block.getInt());
+        boolean[] wanted = new boolean[COLUMNS];
+        for(int column : columns) wanted[column] = true;
+        for(int column = 0; column < COLUMNS; column++){
+            int length = block.getInt();
+            if(!wanted[column]){
+                block.position(block.position() + length);
+                continue;
+            }
+            ByteBuffer bytes = inflate(block.slice(block.position(), length), read.rows * 8);
+            block.position(block.position() + length);
+            switch(column){
+                case IDS -> {
+                    read.ids = new int[read.rows];
+                    for(int row = 0; row < read.rows; row++) read.ids[row] = varint(bytes);
+                }
+                case RANKS -> {
+                    read.ranks = new int[read.rows];
+                    int rank = 0;
+                    for(int row = 0; row < read.rows; row++) read.ranks[row] = rank += varint(bytes);
+                }
+                case STATS -> {
+                    read.stats = new double[read.rows];
+                    long bits = 0;
+                    for(int row = 0; row < read.rows; row++) read.stats[row] = Double.longBitsToDouble(bits ^= bytes.getLong());
+                }
+                case RANK_CHANGES -> {
+                    read.rankChanges = new int[read.rows];
+                    for(int row = 0; row < read.rows; row++){
+                        int stored = varint(bytes);
+                        read.rankChanges[row] = stored == 0 ? NOT_SEEN : unzigzag(stored - 1);
+                    }
+                }
+                case STAT_CHANGES -> {
+                    read.statChanges = new double[read.rows];
+                    for(int row = 0; row < read.rows; row++) read.statChanges[row] = bytes.getDouble();
+                }
+            }
+        }
+        return read;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer compressed, int expected) throws IOException {
+        Inflater inflater = new Inflater();
+        try{
+            inflater.setInput(compressed);
+            ByteBuffer out = ByteBuffer.allocate(Math.max(64, expected));
+            while(!inflater.finished()){
+                if(!out.hasRemaining()) out = ByteBuffer.allocate(out.capacity() * 2).put(out.flip());
+                if(inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+                    throw new IOException("Snapshot column is cut off");
+                }
+            }
+            return out.flip();
+        }catch(DataFormatException e){
+            throw new IOException("Snapshot column is corrupt", e);
+        }finally{
+            inflater.end();
+        }
+    }
+
+    private static int varint(ByteBuffer in) {
+        int value = 0;
+        for(int shift = 0; ; shift += 7){
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0) return value;
+        }
+    }
+
+    private static int utfLength(String text) {
+        int length = 0;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            length += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if(read < 0) throw new EOFException("Snapshot store is cut off");
+            position += read;
+        }
+    }
+
+    /*
+     * One player in one snapshot.
+     */
+    public static class Entry {
+
+        public final String name;
+
+        // Epoch milliseconds of the snapshot
+        public final long time;
+
+        public final int rank;
+
+        public final double stat;
+
+        // Whether the player was in the snapshot compared against
+        public final boolean seen;
+
+        // Places moved up since the snapshot compared against, negative for places moved down
+        public final int rankChange;
+
+        // Change in stat since the snapshot compared against, not a number if not seen
+        public final double statChange;
+
+        private Entry(String name, long time, int rank, double stat, boolean seen, int rankChange, double statChange) {
+            this.name = name;
+            this.time = time;
+            this.rank = rank;
+            this.stat = stat;
+            this.seen = seen;
+            this.rankChange = rankChange;
+            this.statChange = statChange;
+        }
+    }
+
+    private static class Snapshot {
+
+        private final long time;
+
+        private final int rows;
+
+        private int[] ids;
+
+        private int[] ranks;
+
+        private double[] stats;
+
+        private int[] rankChanges;
+
+        private double[] statChanges;
+
+        private Snapshot(long time, int rows) {
+            this.time = time;
+            this.rows = rows;
+        }
+    }
+
+    private static class ColumnWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        private final DeflaterOutputStream deflating = new DeflaterOutputStream(bytes, deflater, 1 << 16);
+
+        private final DataOutputStream out = new DataOutputStream(deflating);
+
+        private void varint(int value) throws IOException {
+            while((value & ~0x7f) != 0){
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private byte[] finish() throws IOException {
+            out.flush();
+            deflating.finish();
+            deflater.end();
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package daniel.mlm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight recorder event for one timed piece of work, so a recording taken with -XX:StartFlightRecording
+ * shows the machine's stages next to GC, I/O and thread events. Costs next to nothing unless a
+ * recording has the event enabled.
+ */
+@Name("daniel.mlm.Stage")
+@Label("MLM Stage")
+@Category("MiniLeaderboardMachine")
+@Description("Time spent in one stage of creating a leaderboard")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+}
@@ -0,0 +1,128 @@
+package daniel.mlm;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Pulls the numbers at a fixed set of stat paths out of a Hypixel player response without building
+ * the whole Json tree. The paths are compiled once into a trie keyed by path element, and the
+ * response is read as a stream: objects on the way to a wanted stat are entered, everything else is
+ * skipped as soon as its key is read.
+ */
+public class StatExtractor {
+
+    // Separator between the elements of a stat path
+    public static final String PATH_SEPARATOR = "~";
+
+    private final Node root = new Node();
+
+    private final String[] paths;
+
+    /*
+     * @param paths             Stat paths with elements separated by ~, their order is the order of the
+     *                          values returned by extract
+     * */
+    public StatExtractor(String[] paths) {
+        this.paths = paths.clone();
+        for(int i = 0; i < paths.length; i++){
+            Node node = root;
+            for(String piece : paths[i].split(PATH_SEPARATOR)){
+                node = node.children.computeIfAbsent(piece, k -> new Node());
+            }
+            node.addIndex(i);
+        }
+    }
+
+    /*
+     * @return                  Number of stats extracted per player
+     * */
+    public int size() {
+        return paths.length;
+    }
+
+    /*
+     * @return                  Every stat path in the order of the values returned by extract
+     * */
+    public String[] paths() {
+        return paths.clone();
+    }
+
+    /*
+     * @param index             Position of a stat in the extracted values
+     * @return                  Path of that stat
+     * */
+    public String getPath(int index) {
+        return paths[index];
+    }
+
+    /*
+     * @param reader            Reader over the Json response of the Hypixel player endpoint
+     * @return                  Value of each path, NaN where the stat is missing or not a number
+     * @throws ApiException     If the response reports that the request was not successful
+     * */
+    public double[] extract(Reader reader) throws IOException {
+        double[] stats = new double[paths.length];
+        Arrays.fill(stats, Double.NaN);
+        JsonReader in = new JsonReader(reader);
+        boolean success = true;
+        String cause = null;
+        in.beginObject();
+        while(in.hasNext()){
+            String key = in.nextName();
+            Node child = root.children.get(key);
+            if(child != null){
+                read(in, child, stats);
+            }
+            else if(key.equals("success") && in.peek() == JsonToken.BOOLEAN){
+                success = in.nextBoolean();
+            }
+            else if(key.equals("cause") && in.peek() == JsonToken.STRING){
+                cause = in.nextString();
+            }
+            else{
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if(!success) throw new ApiException(cause);
+        return stats;
+    }
+
+    private static void read(JsonReader in, Node node, double[] stats) throws IOException {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NUMBER && node.indices.length > 0){
+            double value = in.nextDouble();
+            for(int index : node.indices) stats[index] = value;
+        }
+        else if(token == JsonToken.BEGIN_OBJECT && !node.children.isEmpty()){
+            in.beginObject();
+            while(in.hasNext()){
+                Node child = node.children.get(in.nextName());
+                if(child == null) in.skipValue();
+                else read(in, child, stats);
+            }
+            in.endObject();
+        }
+        else{
+            in.skipValue();
+        }
+    }
+
+    private static class Node {
+
+        private final HashMap<String, Node> children = new HashMap<>();
+
+        // Positions in the output of every path ending at this node
+        private int[] indices = new int[0];
+
+        private void addIndex(int index) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = index;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package daniel.mlm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/*
+ * Formula turning a player's stats into the number they are ranked by, such as
+ * (wins_a + wins_b) / max(losses, 1). The formula is parsed once into a tree of nodes, and every stat
+ * it uses becomes a fixed position in the array the StatExtractor fills in, so evaluating it for a
+ * player is only arithmetic over that array.
+ *
+ * A formula can use numbers, + - * /, parentheses, the functions min, max, abs, sqrt, log, pow and
+ * default, and stats. A stat is either a variable name given a path in the variables, or a path
+ * written straight into the formula such as player~stats~Duels~bridge_duel_wins. A missing stat counts
+ * as 0, or as d when written as default(stat, d).
+ */
+public class StatFormula {
+
+    private final Node root;
+
+    private final String[] paths;
+
+    private StatFormula(Node root, ArrayList<String> paths) {
+        this.root = root;
+        this.paths = paths.toArray(new String[0]);
+    }
+
+    /*
+     * @param formula           Formula to parse
+     * @param variables         Variable name - stat path pairs
+     * @return                  The compiled formula
+     * @throws IllegalArgumentException   If the formula is not valid
+     * */
+    public static StatFormula parse(String formula, Map<String, String> variables) {
+        Parser parser = new Parser(formula, variables);
+        Node root = parser.parseExpression();
+        parser.skipSpaces();
+        if(parser.pos < formula.length()) throw parser.error("Unexpected '" + formula.charAt(parser.pos) + "'");
+        return new StatFormula(root, new ArrayList<>(parser.paths.keySet()));
+    }
+
+    /*
+     * Builds the formula of the posPaths, negPaths and multiplicative options: the positive stats
+     * added together minus the negative ones, or multiplied together and divided by the negative ones.
+     * Missing stats count as 0 when adding and 1 when multiplying.
+     * @param posPaths          Paths of stats to positively include
+     * @param negPaths          Paths of stats to negatively include
+     * @param multiplicative    Whether stats are multiplied instead of added
+     * @return                  The compiled formula
+     * */
+    public static StatFormula ofPaths(String[] posPaths, String[] negPaths, boolean multiplicative) {
+        LinkedHashMap<String, Integer> indices = new LinkedHashMap<>();
+        double missing = multiplicative ? 1.0 : 0.0;
+        Node root = new Constant(missing);
+        for(String path : posPaths){
+            Node stat = new Stat(indices.computeIfAbsent(path, k -> indices.size()), missing);
+            root = multiplicative ? new Binary(root, stat, (a, b) -> a * b) : new Binary(root, stat, Double::sum);
+        }
+        for(String path : negPaths){
+            Node stat = new Stat(indices.computeIfAbsent(path, k -> indices.size()), missing);
+            root = multiplicative ? new Binary(root, stat, (a, b) -> a / b) : new Binary(root, stat, (a, b) -> a - b);
+        }
+        return new StatFormula(root, new ArrayList<>(indices.keySet()));
+    }
+
+    /*
+     * The same formula reading its stats out of a larger array, so several formulas can be evaluated
+     * over the stats of one extraction.
+     * @param allPaths          Paths of the larger array in order, including every path of this formula
+     * @return                  The formula evaluated over values of allPaths
+     * */
+    public StatFormula over(String[] allPaths) {
+        HashMap<String, Integer> positions = new HashMap<>();
+        for(int i = 0; i < allPaths.length; i++) positions.putIfAbsent(allPaths[i], i);
+        int[] mapping = new int[paths.length];
+        for(int i = 0; i < paths.length; i++){
+            Integer position = positions.get(paths[i]);
+            if(position == null) throw new IllegalArgumentException("Missing stat path " + paths[i]);
+            mapping[i] = position;
+        }
+        return new StatFormula(root.remap(mapping), new ArrayList<>(Arrays.asList(allPaths)));
+    }
+
+    /*
+     * @return                  Paths of every stat in the order evaluate expects their values
+     * */
+    public String[] paths() {
+        return paths.clone();
+    }
+
+    /*
+     * @param stats             Value of each path in paths order, NaN where missing
+     * @return                  Value of the formula
+     * */
+    public double evaluate(double[] stats) {
+        return root.evaluate(stats);
+    }
+
+    private interface Node {
+        double evaluate(double[] stats);
+
+        // Copy of the node with every stat index i moved to mapping[i]
+        Node remap(int[] mapping);
+    }
+
+    private record Constant(double value) implements Node {
+        public double evaluate(double[] stats) {
+            return value;
+        }
+
+        public Node remap(int[] mapping) {
+            return this;
+        }
+    }
+
+    private record Stat(int index, double missing) implements Node {
+        public double evaluate(double[] stats) {
+            double value = stats[index];
+            return value != value ? missing : value;
+        }
+
+        public Node remap(int[] mapping) {
+            return new Stat(mapping[index], missing);
+        }
+    }
+
+    private record Unary(Node operand, DoubleUnaryOperator operator) implements Node {
+        public double evaluate(double[] stats) {
+            return operator.applyAsDouble(operand.evaluate(stats));
+        }
+
+        public Node remap(int[] mapping) {
+            return new Unary(operand.remap(mapping), operator);
+        }
+    }
+
+    private record Binary(Node left, Node right, DoubleBinaryOperator operator) implements Node {
+        public double evaluate(double[] stats) {
+            return operator.applyAsDouble(left.evaluate(stats), right.evaluate(stats));
+        }
+
+        public Node remap(int[] mapping) {
+            return new Binary(left.remap(mapping), right.remap(mapping), operator);
+        }
+    }
+
+    /*
+     * Recursive descent parser, one method per level of operator precedence.
+     */
+    private static class Parser {
+
+        private final String text;
+
+        private final Map<String, String> variables;
+
+        // Path - position in the stats array pairs of every stat used so far
+        private final LinkedHashMap<String, Integer> paths = new LinkedHashMap<>();
+
+        private int pos = 0;
+
+        private Parser(String text, Map<String, String> variables) {
+            this.text = text;
+            this.variables = variables;
+        }
+
+        private Node parseExpression() {
+            Node node = parseTerm();
+            while(true){
+                if(accept('+')) node = new Binary(node, parseTerm(), Double::sum);
+                else if(accept('-')) node = new Binary(node, parseTerm(), (a, b) -> a - b);
+                else return node;
+            }
+        }
+
+        private Node parseTerm() {
+            Node node = parseFactor();
+            while(true){
+                if(accept('*')) node = new Binary(node, parseFactor(), (a, b) -> a * b);
+                else if(accept('/')) node = new Binary(node, parseFactor(), (a, b) -> a / b);
+                else return node;
+            }
+        }
+
+        private Node parseFactor() {
+            if(accept('-')) return new Unary(parseFactor(), a -> -a);
+            if(accept('+')) return parseFactor();
+            if(accept('(')){
+                Node node = parseExpression();
+                expect(')');
+                return node;
+            }
+            skipSpaces();
+            if(pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')){
+                return parseNumber();
+            }
+            String name = parseName();
+            if(accept('(')) return parseCall(name);
+            return stat(name, 0.0);
+        }
+
+        private Node parseCall(String function) {
+            String lower = function.toLowerCase(Locale.ROOT);
+            if(lower.equals("default")){
+                String name = parseName();
+                expect(',');
+                double missing = parseSignedNumber();
+                expect(')');
+                return stat(name, missing);
+            }
+            ArrayList<Node> args = new ArrayList<>();
+            if(!accept(')')){
+                do{
+                    args.add(parseExpression());
+                }while(accept(','));
+                expect(')');
+            }
+            switch(lower){
+                case "abs": return unary(function, args, Math::abs);
+                case "sqrt": return unary(function, args, Math::sqrt);
+                case "log": return unary(function, args, Math::log);
+                case "min": return binary(function, args, true, Math::min);
+                case "max": return binary(function, args, true, Math::max);
+                case "pow": return binary(function, args, false, Math::pow);
+                default: throw error("Unknown function " + function);
+            }
+        }
+
+        private Node unary(String function, ArrayList<Node> args, DoubleUnaryOperator operator) {
+            if(args.size() != 1) throw error(function + " takes 1 argument");
+            return new Unary(args.getFirst(), operator);
+        }
+
+        private Node binary(String function, ArrayList<Node> args, boolean variadic, DoubleBinaryOperator operator) {
+            if(args.size() < 2 || (!variadic && args.size() > 2)){
+                throw error(function + (variadic ? " takes at least 2 arguments" : " takes 2 arguments"));
+            }
+            Node node = args.getFirst();
+            for(int i = 1; i < args.size(); i++) node = new Binary(node, args.get(i), operator);
+            return node;
+        }
+
+        private Node stat(String name, double missing) {
+            String path = name.contains(StatExtractor.PATH_SEPARATOR) ? name : variables.get(name);
+            if(path == null) throw error("Unknown variable " + name);
+            return new Stat(paths.computeIfAbsent(path, k -> paths.size()), missing);
+        }
+
+        private Node parseNumber() {
+            return new Constant(parseSignedNumber());
+        }
+
+        private double parseSignedNumber() {
+            skipSpaces();
+            int start = pos;
+            if(pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) pos++;
+            while(pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) pos++;
+            if(pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')){
+                pos++;
+                if(pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) pos++;
+                while(pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+            }
+            try{
+                return Double.parseDouble(text.substring(start, pos));
+            }catch(NumberFormatException e){
+                pos = start;
+                throw error("Expected a number");
+            }
+        }
+
+        private String parseName() {
+            skipSpaces();
+            int start = pos;
+            while(pos < text.length() && isNameChar(text.charAt(pos))) pos++;
+            if(start == pos) throw error(pos < text.length() ? "Unexpected '" + text.charAt(pos) + "'" : "Unexpected end");
+            return text.substring(start, pos);
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '~';
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if(pos < text.length() && text.charAt(pos) == c){
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if(!accept(c)) throw error("Expected '" + c + "'");
+        }
+
+        private void skipSpaces() {
+            while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (pos + 1) + " of formula: " + text);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package daniel.mlm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Every fetched stat of every player, kept as one column of doubles per stat path with a dictionary of
+ * player names, so leaderboards can be scored again with other formulas without fetching anything.
+ * Scoring splits the rows into chunks that are evaluated in parallel on the common fork-join pool.
+ * A matrix is saved to and loaded from a memory-mapped file, and a loaded matrix reads its columns
+ * straight from the mapping.
+ *
+ * File, big-endian: int MAGIC, int VERSION, int rows, int columns, each path and then each name as
+ * unsigned short length and UTF-8 bytes, padding to a multiple of 8 bytes, then each column as rows
+ * doubles. Players whose stats could not be fetched have NaN in every column.
+ */
+public class StatMatrix {
+
+    private static final int MAGIC = 0x4d4c4d53;
+
+    private static final int VERSION = 1;
+
+    // Rows evaluated by one fork-join task
+    private static final int CHUNK = 4096;
+
+    private final String[] paths;
+
+    private final String[] names;
+
+    private final DoubleBuffer[] columns;
+
+    // Lowercase name - row pairs
+    private final HashMap<String, Integer> rows = new HashMap<>();
+
+    /*
+     * @param paths             Stat paths, in the order the stats of each player are in
+     * @param players           Usernames of the players, repeats are only kept once
+     * @param stats             Lowercase username - stats pairs, a player without any has NaN stats
+     * */
+    public StatMatrix(String[] paths, List<String> players, Map<String, double[]> stats) {
+        this.paths = paths.clone();
+        String[] kept = new String[players.size()];
+        int size = 0;
+        for(String name : players){
+            if(rows.putIfAbsent(name.toLowerCase(Locale.ROOT), size) == null) kept[size++] = name;
+        }
+        names = Arrays.copyOf(kept, size);
+        columns = new DoubleBuffer[paths.length];
+        double[][] values = new double[paths.length][size];
+        for(int row = 0; row < size; row++){
+            double[] playerStats = stats.get(names[row].toLowerCase(Locale.ROOT));
+            for(int column = 0; column < paths.length; column++){
+                values[column][row] = playerStats == null ? Double.NaN : playerStats[column];
+            }
+        }
+        for(int column = 0; column < paths.length; column++) columns[column] = DoubleBuffer.wrap(values[column]);
+    }
+
+    private StatMatrix(String[] paths, String[] names, DoubleBuffer[] columns) {
+        this.paths = paths;
+        this.names = names;
+        this.columns = columns;
+        for(int row = 0; row < names.length; row++) this.rows.putIfAbsent(names[row].toLowerCase(Locale.ROOT), row);
+    }
+
+    /*
+     * @param file              File a matrix was saved to
+     * @return                  The matrix, reading its columns from the file
+     * */
+    public static StatMatrix load(File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(map.remaining() < 16 || map.getInt() != MAGIC || map.getInt() != VERSION){
+                throw new IOException(file + " is not a saved stat matrix");
+            }
+            int rowCount = map.getInt();
+            String[] paths = new String[map.getInt()];
+            for(int i = 0; i < paths.length; i++) paths[i] = readString(map);
+            String[] names = new String[rowCount];
+            for(int i = 0; i < names.length; i++) names[i] = readString(map);
+            map.position(align(map.position()));
+            DoubleBuffer[] columns = new DoubleBuffer[paths.length];
+            for(int column = 0; column < paths.length; column++){
+                columns[column] = map.slice(map.position(), rowCount * 8).asDoubleBuffer();
+                map.position(map.position() + rowCount * 8);
+            }
+            // The mapping stays valid after the channel is closed
+            return new StatMatrix(paths, names, columns);
+        }
+    }
+
+    /*
+     * @param file              File to save the matrix to, replacing it
+     * */
+    public void save(File file) throws IOException {
+        byte[][] pathBytes = new byte[paths.length][];
+        byte[][] nameBytes = new byte[names.length][];
+        long header = 16;
+        for(int i = 0; i < paths.length; i++) header += 2 + (pathBytes[i] = paths[i].getBytes(StandardCharsets.UTF_8)).length;
+        for(int i = 0; i < names.length; i++) header += 2 + (nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8)).length;
+        long start = align(header);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, start + (long)paths.length * names.length * 8);
+            map.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(paths.length);
+            for(byte[] bytes : pathBytes) map.putShort((short)bytes.length).put(bytes);
+            for(byte[] bytes : nameBytes) map.putShort((short)bytes.length).put(bytes);
+            map.position((int)start);
+            for(DoubleBuffer column : columns){
+                map.asDoubleBuffer().put(column.duplicate().clear());
+                map.position(map.position() + names.length * 8);
+            }
+            map.force();
+        }
+    }
+
+    public int rows() {
+        return names.length;
+    }
+
+    public String name(int row) {
+        return names[row];
+    }
+
+    /*
+     * @param name              Username of a player, in any case
+     * @return                  Row of the player, -1 if they are not in the matrix
+     * */
+    public int row(String name) {
+        Integer row = rows.get(name.toLowerCase(Locale.ROOT));
+        return row == null ? -1 : row;
+    }
+
+    public String[] paths() {
+        return paths.clone();
+    }
+
+    /*
+     * Evaluates a formula for every player, in parallel over chunks of rows.
+     * @param formula           Formula to evaluate, using only paths in the matrix
+     * @return                  Value of the formula for each row
+     * */
+    public double[] score(StatFormula formula) {
+        String[] formulaPaths = formula.paths();
+        HashMap<String, Integer> positions = new HashMap<>();
+        for(int i = 0; i < paths.length; i++) positions.putIfAbsent(paths[i], i);
+        DoubleBuffer[] used = new DoubleBuffer[formulaPaths.length];
+        for(int i = 0; i < formulaPaths.length; i++){
+            Integer position = positions.get(formulaPaths[i]);
+            if(position == null) throw new IllegalArgumentException("Missing stat path " + formulaPaths[i]);
+            used[i] = columns[position];
+        }
+        double[] scores = new double[names.length];
+        ForkJoinPool.commonPool().invoke(new ScoreTask(formula, used, scores, 0, names.length));
+        return scores;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int align(long position) {
+        return (int)((position + 7) & ~7L);
+    }
+
+    private static class ScoreTask extends RecursiveAction {
+
+        private final StatFormula formula;
+
+        // Columns of the formula's paths, in the order it expects them
+        private final DoubleBuffer[] columns;
+
+        private final double[] scores;
+
+        private final int from;
+
+        private final int to;
+
+        private ScoreTask(StatFormula formula, DoubleBuffer[] columns, double[] scores, int from, int to) {
+            this.formula = formula;
+            this.columns = columns;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > CHUNK){
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScoreTask(formula, columns, scores, from, middle),
+                        new ScoreTask(formula, columns, scores, middle, to));
+                return;
+            }
+            double[] stats = new double[columns.length];
+            for(int row = from; row < to; row++){
+                for(int i = 0; i < columns.length; i++) stats[i] = columns[i].get(row);
+                scores[row] = formula.evaluate(stats);
+            }
+        }
+    }
+}
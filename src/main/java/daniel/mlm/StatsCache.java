@@ -0,0 +1,274 @@
+package daniel.mlm;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Hypixel player responses kept on disk so players fetched recently are not fetched again. Each
+ * response is stored gzipped in its own file, and a memory-mapped index of fixed-size slots records
+ * for every key when it was fetched, when it was last used and how big it is. Once the stored
+ * responses go over the size limit, the least recently used ones are deleted.
+ */
+public class StatsCache implements Closeable {
+
+    // Bytes per index slot: key, fetch time, last use time, size, in use flag
+    private static final int SLOT_SIZE = 64;
+
+    private static final int KEY_SIZE = 32;
+
+    private static final int FETCHED_AT = 32;
+
+    private static final int LAST_USED = 40;
+
+    private static final int SIZE = 48;
+
+    private static final int USED = 52;
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final File dir;
+
+    // Milliseconds a response is used for after being fetched
+    private final long maxAgeMillis;
+
+    // Maximum total size of the stored responses
+    private final long maxBytes;
+
+    private final FileChannel indexChannel;
+
+    private MappedByteBuffer index;
+
+    private int slotCount;
+
+    private final HashMap<String, Integer> slotsByKey = new HashMap<>();
+
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    private long totalBytes = 0;
+
+    /*
+     * @param dir               Directory the cache is kept in
+     * @param maxAgeMillis      Milliseconds a response is used for after being fetched
+     * @param maxBytes          Maximum total size of the stored responses
+     * */
+    public StatsCache(File dir, long maxAgeMillis, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create " + dir + ".");
+        indexChannel = FileChannel.open(new File(dir, "index.bin").toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        slotCount = Math.max(INITIAL_SLOTS, (int)(indexChannel.size() / SLOT_SIZE));
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long)slotCount * SLOT_SIZE);
+        for(int slot = 0; slot < slotCount; slot++){
+            if(index.get(slot * SLOT_SIZE + USED) == 0){
+                freeSlots.add(slot);
+                continue;
+            }
+            slotsByKey.put(readKey(slot), slot);
+            totalBytes += index.getInt(slot * SLOT_SIZE + SIZE);
+        }
+    }
+
+    /*
+     * @param name              Username of a player
+     * @return                  Cache key for a response fetched by username
+     * */
+    public static String nameKey(String name) {
+        return "name_" + name.toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * @param key               UUID of the player, or nameKey of their username
+     * @return                  The stored response if it is younger than the max age, otherwise null
+     * */
+    public synchronized InputStream get(String key) throws IOException {
+        Integer slot = slotsByKey.get(key);
+        if(slot == null) return null;
+        int base = slot * SLOT_SIZE;
+        long now = System.currentTimeMillis();
+        if(now - index.getLong(base + FETCHED_AT) > maxAgeMillis) return null;
+        File file = fileFor(key);
+        if(!file.exists()){
+            remove(slot, key);
+            return null;
+        }
+        index.putLong(base + LAST_USED, now);
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /*
+     * @param in                Response body about to be read
+     * @return                  Stream that keeps a compressed copy of everything read through it
+     * */
+    public InputStream recording(InputStream in) {
+        return new Recording(in);
+    }
+
+    /*
+     * Stores a response read through recording. The rest of the response is read first so the
+     * stored copy is complete.
+     * @param key               UUID of the player, or nameKey of their username
+     * @param recording         Stream returned by recording
+     * */
+    public void put(String key, InputStream recording) throws IOException {
+        if(key == null || key.length() > KEY_SIZE || !(recording instanceof Recording r)) return;
+        byte[] data = r.finish();
+        // Each put has its own temp file, so puts of the same key never write into each other's
+        Path temp = Files.createTempFile(dir.toPath(), key, ".tmp");
+        try{
+            try(OutputStream out = Files.newOutputStream(temp)){
+                out.write(data);
+            }
+        }catch(IOException e){
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        // Replaced under the same lock as evict, so a file is never deleted while it is being replaced
+        synchronized(this){
+            try{
+                Files.move(temp, fileFor(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }catch(IOException e){
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Integer slot = slotsByKey.get(key);
+            if(slot != null){
+                totalBytes -= index.getInt(slot * SLOT_SIZE + SIZE);
+            }
+            else{
+                if(freeSlots.isEmpty()) grow();
+                slot = freeSlots.poll();
+                slotsByKey.put(key, slot);
+            }
+            int base = slot * SLOT_SIZE;
+            byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+            for(int i = 0; i < KEY_SIZE; i++) index.put(base + i, i < keyBytes.length ? keyBytes[i] : 0);
+            long now = System.currentTimeMillis();
+            index.putLong(base + FETCHED_AT, now);
+            index.putLong(base + LAST_USED, now);
+            index.putInt(base + SIZE, data.length);
+            index.put(base + USED, (byte)1);
+            totalBytes += data.length;
+            if(totalBytes > maxBytes) evict();
+        }
+    }
+
+    /*
+     * Writes the index back to disk.
+     * */
+    @Override
+    public synchronized void close() throws IOException {
+        index.force();
+        indexChannel.close();
+    }
+
+    /*
+     * Deletes least recently used responses until the cache is down to 90% of its size limit, so
+     * eviction does not run again on the very next put.
+     * */
+    private void evict() {
+        ArrayList<Integer> used = new ArrayList<>(slotsByKey.values());
+        used.sort(Comparator.comparingLong(slot -> index.getLong(slot * SLOT_SIZE + LAST_USED)));
+        long target = maxBytes / 10 * 9;
+        for(int slot : used){
+            if(totalBytes <= target) break;
+            String key = readKey(slot);
+            totalBytes -= index.getInt(slot * SLOT_SIZE + SIZE);
+            remove(slot, key);
+            if(!fileFor(key).delete()) System.out.println("Unable to delete cached stats " + fileFor(key) + ".");
+        }
+    }
+
+    private void remove(int slot, String key) {
+        index.put(slot * SLOT_SIZE + USED, (byte)0);
+        slotsByKey.remove(key);
+        freeSlots.add(slot);
+    }
+
+    private void grow() throws IOException {
+        index.force();
+        int newCount = slotCount * 2;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long)newCount * SLOT_SIZE);
+        for(int slot = slotCount; slot < newCount; slot++) freeSlots.add(slot);
+        slotCount = newCount;
+    }
+
+    private String readKey(int slot) {
+        byte[] key = new byte[KEY_SIZE];
+        int length = 0;
+        for(; length < KEY_SIZE; length++){
+            byte b = index.get(slot * SLOT_SIZE + length);
+            if(b == 0) break;
+            key[length] = b;
+        }
+        return new String(key, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key + ".json.gz");
+    }
+
+    /*
+     * Passes a response through while compressing a copy of it into memory.
+     */
+    private static class Recording extends FilterInputStream {
+
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private final GZIPOutputStream gzip;
+
+        private Recording(InputStream in) {
+            super(in);
+            try{
+                gzip = new GZIPOutputStream(copy);
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) gzip.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) gzip.write(b, off, n);
+            return n;
+        }
+
+        private byte[] finish() throws IOException {
+            byte[] buffer = new byte[8192];
+            while(read(buffer, 0, buffer.length) >= 0){
+                // Read the rest of the response into the copy
+            }
+            gzip.finish();
+            return copy.toByteArray();
+        }
+    }
+}
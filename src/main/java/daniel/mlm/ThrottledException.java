@@ -0,0 +1,20 @@
+package daniel.mlm;
+
+/*
+ * Thrown when an API answers 429 Too Many Requests. The request can be sent again once the API is
+ * ready for more.
+ */
+public class ThrottledException extends ApiException {
+
+    // Milliseconds the API asked to wait before trying again
+    private final long retryAfterMillis;
+
+    public ThrottledException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,153 @@
+package daniel.mlm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * Name - UUID pairs remembered between runs. The cache is an append-only log of
+ * "name<TAB>uuid<TAB>time resolved" lines, read the first time a name is looked up. Entries older than
+ * the TTL are ignored, and only the most recently used entries are kept once the cache is full. The
+ * log is rewritten without stale lines when the cache is closed, if it has grown to more than twice
+ * the number of live entries.
+ */
+public class UuidCache implements Closeable {
+
+    private final File file;
+
+    // Milliseconds after which a resolved UUID is looked up again
+    private final long ttlMillis;
+
+    // Maximum number of names kept
+    private final int maxEntries;
+
+    // Lowercase name - entry pairs, in least to most recently used order
+    private final LinkedHashMap<String, Entry> entries;
+
+    // Number of lines in the log, including stale and replaced ones
+    private int logLines = 0;
+
+    private Writer log;
+
+    private boolean loaded = false;
+
+    /*
+     * @param file              Log file of the cache
+     * @param ttlMillis         Milliseconds a resolved UUID stays valid
+     * @param maxEntries        Maximum number of names kept
+     * */
+    public UuidCache(File file, long ttlMillis, int maxEntries) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > UuidCache.this.maxEntries;
+            }
+        };
+    }
+
+    /*
+     * @param name              Username of a player
+     * @return                  UUID of the player if it was resolved within the TTL, otherwise null
+     * */
+    public synchronized String get(String name) {
+        load();
+        String key = name.toLowerCase(Locale.ROOT);
+        Entry entry = entries.get(key);
+        if(entry == null) return null;
+        if(System.currentTimeMillis() - entry.resolvedAt > ttlMillis){
+            entries.remove(key);
+            return null;
+        }
+        return entry.uuid;
+    }
+
+    /*
+     * @param name              Username of a player
+     * @param uuid              UUID of the player according to Mojang
+     * */
+    public synchronized void put(String name, String uuid) {
+        load();
+        String key = name.toLowerCase(Locale.ROOT);
+        Entry entry = new Entry(uuid, System.currentTimeMillis());
+        entries.put(key, entry);
+        try{
+            if(log == null){
+                log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            log.write(key + "\t" + uuid + "\t" + entry.resolvedAt + "\n");
+            logLines++;
+        }catch(IOException e){
+            System.out.println("Unable to write to UUID cache " + file + ".");
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Writes out pending entries, compacting the log if most of it is stale.
+     * */
+    @Override
+    public synchronized void close() {
+        try{
+            if(log != null){
+                log.close();
+                log = null;
+            }
+            if(loaded && logLines > 2 * entries.size()) compact();
+        }catch(IOException e){
+            System.out.println("Unable to save UUID cache " + file + ".");
+            e.printStackTrace();
+        }
+    }
+
+    private void load() {
+        if(loaded) return;
+        loaded = true;
+        if(!file.exists()) return;
+        long now = System.currentTimeMillis();
+        try(BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))){
+            String line;
+            while((line = reader.readLine()) != null){
+                logLines++;
+                String[] parts = line.split("\t");
+                if(parts.length != 3) continue;
+                try{
+                    long resolvedAt = Long.parseLong(parts[2]);
+                    if(now - resolvedAt <= ttlMillis) entries.put(parts[0], new Entry(parts[1], resolvedAt));
+                }catch(NumberFormatException ignored){
+                    // Skip lines cut off by an earlier crash
+                }
+            }
+        }catch(IOException e){
+            System.out.println("Unable to read UUID cache " + file + ", starting empty.");
+            e.printStackTrace();
+        }
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))){
+            for(Map.Entry<String, Entry> entry : entries.entrySet()){
+                out.write(entry.getKey() + "\t" + entry.getValue().uuid + "\t" + entry.getValue().resolvedAt + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines = entries.size();
+    }
+
+    private record Entry(String uuid, long resolvedAt) {}
+}
@@ -0,0 +1,90 @@
+package daniel.mlm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SnapshotStoreTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void reopensAfterHistoryIsCutOff() throws IOException {
+        long committed = appendUncommitted();
+        try(RandomAccessFile history = new RandomAccessFile(new File(dir, "history"), "rw")){
+            history.setLength(committed);
+        }
+        checkLastCommitted();
+    }
+
+    @Test
+    public void reopensAfterHistoryIsZeroed() throws IOException {
+        long committed = appendUncommitted();
+        try(RandomAccessFile history = new RandomAccessFile(new File(dir, "history"), "rw")){
+            history.seek(committed);
+            history.write(new byte[(int)(history.length() - committed)]);
+        }
+        checkLastCommitted();
+    }
+
+    /*
+     * Appends two snapshots, then a third whose index record is cut off as if the run crashed before
+     * committing it, leaving its heads written.
+     * @return                  Length of history once the second snapshot was committed
+     * */
+    private long appendUncommitted() throws IOException {
+        long committed;
+        try(SnapshotStore store = new SnapshotStore(dir)){
+            store.append(leaderboard("alice", 10, "bob", 8), 1000);
+            store.append(leaderboard("bob", 12, "alice", 11, "carol", 5), 2000);
+            committed = new File(dir, "history").length();
+            store.append(leaderboard("carol", 20, "bob", 13, "dave", 1), 3000);
+        }
+        try(RandomAccessFile index = new RandomAccessFile(new File(dir, "snapshots.idx"), "rw")){
+            index.setLength(index.length() / 3 * 2);
+        }
+        return committed;
+    }
+
+    private void checkLastCommitted() throws IOException {
+        try(SnapshotStore store = new SnapshotStore(dir)){
+            assertEquals(2, store.snapshots());
+            checkHistory(store.history("carol"), 3);
+            ArrayList<SnapshotStore.Entry> bob = store.history("bob");
+            assertEquals(2, bob.size());
+            assertEquals(1, bob.get(1).rank);
+            assertEquals(1, bob.get(1).rankChange);
+            assertEquals(2, store.movers(1, 10).size());
+
+            // The next snapshot is chained onto the committed ones
+            store.append(leaderboard("carol", 20, "bob", 13), 3000);
+            ArrayList<SnapshotStore.Entry> carol = store.history("carol");
+            assertEquals(2, carol.size());
+            assertEquals(2, carol.get(1).rankChange);
+            assertEquals(3, store.history("bob").size());
+        }
+    }
+
+    private static void checkHistory(ArrayList<SnapshotStore.Entry> entries, int rank) {
+        assertEquals(1, entries.size());
+        assertEquals(rank, entries.getFirst().rank);
+        assertFalse(entries.getFirst().seen);
+    }
+
+    /*
+     * @param rows              Name and score pairs
+     * */
+    private static Ranking leaderboard(Object... rows) {
+        Ranking ranking = new Ranking(rows.length / 2);
+        for(int i = 0; i < rows.length; i += 2) ranking.add((String)rows[i], ((Integer)rows[i + 1]).doubleValue());
+        return ranking.sort(false);
+    }
+}